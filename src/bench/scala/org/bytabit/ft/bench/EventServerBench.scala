@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.bench
+
+import java.io.{File, PrintWriter}
+import java.net.URL
+import java.util.UUID
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong}
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.Http
+import akka.http.scaladsl.model._
+import akka.http.scaladsl.model.headers.RawHeader
+import akka.http.scaladsl.unmarshalling.Unmarshal
+import akka.pattern.{after, ask}
+import akka.stream.ActorMaterializer
+import akka.util.Timeout
+import org.bitcoinj.core.{Context, NetworkParameters}
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.arbitrator.ArbitratorManager
+import org.bytabit.ft.server.EventServer.GetWriteStats
+import org.bytabit.ft.server._
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.Contract
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.Arbitrator
+import spray.json._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+import scala.language.postfixOps
+
+// starts an event server on localhost and simulates traders posting offer, take, sign and fiat sent
+// events over http while readers page through /events, results are written as json to compare releases
+//
+// gradle bench -Ptraders=50 -Ptrades=20 -Preaders=5
+
+object EventServerBench extends EventServerJsonProtocol {
+
+  // latencies in nanos
+
+  class Latencies {
+
+    private val samples = new ConcurrentLinkedQueue[Long]()
+
+    def record(start: Long): Unit = samples.add(System.nanoTime() - start)
+
+    def toJson: JsObject = {
+      val sorted = samples.asScala.toVector.sorted
+      def ms(n: Long) = JsNumber(BigDecimal(n) / 1000000)
+      def p(q: Double) = ms(if (sorted.isEmpty) 0 else sorted(Math.min(sorted.size - 1, (q * sorted.size).toInt)))
+      JsObject("count" -> JsNumber(sorted.size), "p50Ms" -> p(0.5), "p99Ms" -> p(0.99), "p999Ms" -> p(0.999),
+        "maxMs" -> ms(sorted.lastOption.getOrElse(0L)))
+    }
+  }
+
+  def main(args: Array[String]): Unit = {
+
+    val opts = args.map(_.split("=", 2)).collect { case Array(k, v) => k -> v }.toMap
+    val traders = opts.get("traders").map(_.toInt).getOrElse(50)
+    val trades = opts.get("trades").map(_.toInt).getOrElse(20)
+    val readers = opts.get("readers").map(_.toInt).getOrElse(5)
+    val out = new File(opts.getOrElse("out", s"build/bench/eventserver-${System.currentTimeMillis()}.json"))
+
+    // benchmark data directories are emptied so each run starts from an empty journal
+
+    if (Config.config == "bench") Seq(Config.pluginJournalDir, Config.snapshotStoreDir, Config.archiveDir).foreach(delete)
+    Seq(Config.pluginJournalDir, Config.snapshotStoreDir, Config.archiveDir).foreach(Config.createDir)
+
+    implicit val system = ActorSystem.create(Config.config)
+    implicit val materializer = ActorMaterializer()
+    implicit val dispatcher = system.dispatcher
+    implicit val timeout = Timeout(30 seconds)
+
+    val host = EventServerHost.actorOf()
+    val url = new URL(s"http://${Config.localAddress}:${Config.localPort}")
+
+    // participants are created once, each trade gets new ids
+
+    val params = NetworkParameters.fromID(NetworkParameters.ID_REGTEST)
+    Context.propagate(new Context(params))
+    val wallet = new Wallet(params)
+    val arbitrator = Arbitrator(url, 0.2, BTCMoney(0, 10))(wallet)
+    val contract = Contract(arbitrator, CurrencyUnits.USD, PaymentMethod.swish)
+
+    val postLatency = new Latencies
+    val getLatency = new Latencies
+    val posts = new AtomicLong()
+    val retried = new AtomicLong()
+
+    def post(path: String, json: JsValue, nonce: String): Future[Unit] = {
+      val start = System.nanoTime()
+      Http().singleRequest(HttpRequest(HttpMethods.POST, s"$url$path", List(RawHeader("Idempotency-Key", nonce)),
+        HttpEntity(ContentTypes.`application/json`, json.compactPrint))).flatMap {
+        case HttpResponse(StatusCodes.OK, _, entity, _) =>
+          postLatency.record(start)
+          posts.incrementAndGet()
+          entity.dataBytes.runFold(())((u, _) => u)
+        case HttpResponse(sc@(StatusCodes.TooManyRequests | StatusCodes.ServiceUnavailable), _, entity, _) =>
+          retried.incrementAndGet()
+          entity.dataBytes.runFold(())((u, _) => u).flatMap(_ => after(100 millis, system.scheduler)(post(path, json, nonce)))
+        case HttpResponse(sc, _, entity, _) =>
+          entity.dataBytes.runFold(())((u, _) => u).flatMap(_ => Future.failed(new IllegalStateException(s"$path $sc")))
+      }
+    }
+
+    def postTrade(evt: TradeProcess.PostedEvent) = post("/trade", evt.toJson, UUID.randomUUID().toString)
+
+    def postArbitrator(evt: ArbitratorManager.PostedEvent) = post("/arbitrator", evt.toJson, UUID.randomUUID().toString)
+
+    // signed trades are built before the run, each trader posts offer, take, sign and fiat sent one
+    // event after another as real traders would
+
+    val signedTrades = new SignedTrades(params, contract)
+    val traderEvents = (1 to traders).map(n => (1 to trades).flatMap(t => signedTrades.trade(s"bench-$n-$t")))
+
+    def trader(n: Int): Future[Unit] =
+      traderEvents(n - 1).foldLeft(Future.successful(())) { (f, evt) =>
+        f.flatMap(_ => postTrade(evt))
+      }
+
+    // readers page through /events from the start until the traders are done
+
+    val tradersDone = new AtomicBoolean(false)
+
+    def reader(cursor: Option[Long]): Future[Unit] =
+      if (tradersDone.get) Future.successful(())
+      else {
+        val start = System.nanoTime()
+        val query = cursor.map(c => s"?after=$c").getOrElse("")
+        Http().singleRequest(HttpRequest(HttpMethods.GET, s"$url/events$query")).flatMap {
+          case HttpResponse(StatusCodes.OK, _, entity, _) =>
+            Unmarshal(entity).to[String].map { s =>
+              getLatency.record(start)
+              s.parseJson.asJsObject.fields.get("cursor").collect { case JsNumber(c) => c.toLong }.orElse(cursor)
+            }
+          case HttpResponse(_, _, entity, _) =>
+            entity.dataBytes.runFold(())((u, _) => u).map { _ =>
+              getLatency.record(start)
+              cursor
+            }
+        }.flatMap(reader)
+      }
+
+    def awaitServer(tries: Int): Future[Unit] =
+      Http().singleRequest(HttpRequest(HttpMethods.GET, s"$url/events")).flatMap { r =>
+        r.entity.dataBytes.runFold(())((u, _) => u)
+      }.recoverWith {
+        case e if tries > 0 => after(500 millis, system.scheduler)(awaitServer(tries - 1))
+      }
+
+    val run = for {
+      _ <- awaitServer(20)
+      _ <- postArbitrator(ArbitratorManager.ArbitratorCreated(url, arbitrator))
+      _ <- postArbitrator(ArbitratorManager.ContractAdded(url, contract))
+      heapBefore = usedHeap()
+      start = System.nanoTime()
+      rs = (1 to readers).map(_ => reader(None))
+      _ <- Future.sequence((1 to traders).map(trader))
+      elapsed = System.nanoTime() - start
+      _ = tradersDone.set(true)
+      _ <- Future.sequence(rs)
+      ws <- system.actorSelection(s"/user/${EventServerHost.name}/${EventServer.name}").resolveOne()
+        .flatMap(_ ? GetWriteStats).mapTo[WriteStats]
+    } yield {
+      val seconds = elapsed / 1e9
+      val heapAfter = usedHeap()
+      JsObject(
+        "version" -> JsString(Config.version),
+        "traders" -> JsNumber(traders),
+        "tradesPerTrader" -> JsNumber(trades),
+        "readers" -> JsNumber(readers),
+        "seconds" -> JsNumber(seconds),
+        "tradesPerSecond" -> JsNumber(traders * trades / seconds),
+        "postsPerSecond" -> JsNumber(posts.get / seconds),
+        "postsRetried" -> JsNumber(retried.get),
+        "post" -> postLatency.toJson,
+        "getEvents" -> getLatency.toJson,
+        "journal" -> JsObject("events" -> JsNumber(ws.events), "batches" -> JsNumber(ws.batches),
+          "meanBatch" -> JsNumber(ws.meanBatchSize), "meanLatencyMs" -> JsNumber(ws.meanLatency),
+          "maxLatencyMs" -> JsNumber(ws.maxLatency), "bytes" -> JsNumber(Config.dirSize(Config.pluginJournalDir))),
+        "heap" -> JsObject("beforeBytes" -> JsNumber(heapBefore), "afterBytes" -> JsNumber(heapAfter),
+          "growthBytes" -> JsNumber(heapAfter - heapBefore))
+      )
+    }
+
+    try {
+      val results = Await.result(run, 1 hour).prettyPrint
+      println(results)
+      Option(out.getParentFile).foreach(_.mkdirs())
+      val w = new PrintWriter(out)
+      try w.println(results) finally w.close()
+      println(s"Results written to $out")
+    } finally {
+      Http().shutdownAllConnectionPools().onComplete(_ => system.shutdown())
+      system.awaitTermination()
+    }
+  }
+
+  def usedHeap(): Long = {
+    System.gc()
+    val rt = Runtime.getRuntime
+    rt.totalMemory - rt.freeMemory
+  }
+
+  def delete(f: File): Unit = {
+    Option(f.listFiles).foreach(_.foreach(delete))
+    f.delete()
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.bench
+
+import java.io.{File, PrintWriter}
+import java.net.URL
+
+import org.bitcoinj.core.{Context, NetworkParameters}
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.trade.model.Contract
+import org.bytabit.ft.trade.{TradeJsonProtocol, TradeProcess}
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.Arbitrator
+import spray.json._
+
+// compares json and binary journal entries of the trade events posted to an event server, the
+// read time is the deserialize cost of recovering a journal with these entries
+//
+// gradle benchJournal -Ptrades=1000 -Prounds=10
+
+object JournalBench extends TradeJsonProtocol {
+
+  def main(args: Array[String]): Unit = {
+
+    val opts = args.map(_.split("=", 2)).collect { case Array(k, v) => k -> v }.toMap
+    val trades = opts.get("trades").map(_.toInt).getOrElse(1000)
+    val rounds = opts.get("rounds").map(_.toInt).getOrElse(10)
+    val out = new File(opts.getOrElse("out", s"build/bench/journal-${System.currentTimeMillis()}.json"))
+
+    val params = NetworkParameters.fromID(NetworkParameters.ID_REGTEST)
+    Context.propagate(new Context(params))
+    val url = new URL("http://127.0.0.1:9900")
+    val arbitrator = Arbitrator(url, 0.2, BTCMoney(0, 10))(new Wallet(params))
+    val contract = Contract(arbitrator, CurrencyUnits.USD, PaymentMethod.swish)
+    val signedTrades = new SignedTrades(params, contract)
+
+    val events: Seq[TradeProcess.Event] = (1 to trades).flatMap(t => signedTrades.trade(s"bench-$t"))
+
+    val jsons = events.map(_.toJson)
+
+    // best of rounds, the first rounds warm up the jvm
+
+    def best(f: => Unit): Long = (1 to rounds).map { _ =>
+      val start = System.nanoTime()
+      f
+      System.nanoTime() - start
+    }.min
+
+    def entries(write: JsValue => Array[Byte]): JsObject = {
+      val bytes = jsons.map(write)
+      val writeNanos = best(jsons.foreach(write))
+      val readNanos = best(bytes.foreach(b => JsBinary.read(b).convertTo[TradeProcess.Event]))
+      JsObject(
+        "bytes" -> JsNumber(bytes.map(_.length.toLong).sum),
+        "bytesPerEvent" -> JsNumber(bytes.map(_.length.toLong).sum / bytes.size),
+        "writeMs" -> JsNumber(BigDecimal(writeNanos) / 1000000),
+        "readMs" -> JsNumber(BigDecimal(readNanos) / 1000000),
+        "readMicrosPerEvent" -> JsNumber(BigDecimal(readNanos) / 1000 / bytes.size))
+    }
+
+    val result = JsObject(
+      "version" -> JsString(Config.version),
+      "events" -> JsNumber(events.size),
+      "rounds" -> JsNumber(rounds),
+      "json" -> entries(_.compactPrint.getBytes(JsBinary.UTF8)),
+      "binary" -> entries(JsBinary.write))
+
+    Config.createDir(out.getAbsoluteFile.getParentFile)
+    val writer = new PrintWriter(out)
+    writer.write(result.prettyPrint)
+    writer.close()
+    println(result.prettyPrint)
+    println(s"results written to $out")
+  }
+}
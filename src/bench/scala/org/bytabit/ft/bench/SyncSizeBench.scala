@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.bench
+
+import java.io.{File, PrintWriter}
+import java.net.URL
+
+import akka.http.scaladsl.coding.{Deflate, Encoder, Gzip}
+import org.bitcoinj.core.{Context, NetworkParameters}
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.arbitrator.ArbitratorManager
+import org.bytabit.ft.server.{EventServer, PostedEventJson}
+import org.bytabit.ft.trade.model.Contract
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.Arbitrator
+import org.joda.time.DateTime
+import spray.json._
+
+// bytes transferred by a client syncing all events of an event server in /events pages, uncompressed as
+// before responses were encoded and with each encoding a client can accept
+//
+// gradle benchSyncSize -Ptrades=1000
+
+object SyncSizeBench {
+
+  def main(args: Array[String]): Unit = {
+
+    val opts = args.map(_.split("=", 2)).collect { case Array(k, v) => k -> v }.toMap
+    val trades = opts.get("trades").map(_.toInt).getOrElse(1000)
+    val out = new File(opts.getOrElse("out", s"build/bench/sync-size-${System.currentTimeMillis()}.json"))
+
+    val params = NetworkParameters.fromID(NetworkParameters.ID_REGTEST)
+    Context.propagate(new Context(params))
+    val url = new URL("http://127.0.0.1:9900")
+    val arbitrator = Arbitrator(url, 0.2, BTCMoney(0, 10))(new Wallet(params))
+    val contract = Contract(arbitrator, CurrencyUnits.USD, PaymentMethod.swish)
+    val signedTrades = new SignedTrades(params, contract)
+    val posted = Some(DateTime.now)
+
+    val aes: Seq[ArbitratorManager.PostedEvent] = Seq(ArbitratorManager.ArbitratorCreated(url, arbitrator, posted),
+      ArbitratorManager.ContractAdded(url, contract, posted))
+    val withArbitrator = aes.foldLeft(EventServer.Data()) { (d, ae) =>
+      d.arbitratorEventApplied(d.lastSeq + 1, ae, PostedEventJson(ae))
+    }
+    val data = (1 to trades).flatMap(t => signedTrades.trade(s"bench-$t", posted)).foldLeft(withArbitrator) { (d, te) =>
+      d.tradeEventPosted(d.lastSeq + 1, te, PostedEventJson(te))
+    }
+
+    // pages as a client reads them, each after the previous page's cursor
+
+    val limit = Config.serverEventsPageLimit
+    val pages = Iterator.iterate(data.postedEventsAfter(None, limit))(p => data.postedEventsAfter(p.cursor, limit))
+      .takeWhile(!_.isEmpty).map(_.toByteString).toVector
+
+    def encoded(encoder: Encoder): JsObject = {
+      val bytes = pages.map(p => encoder.newCompressor.compressAndFinish(p).length.toLong).sum
+      JsObject("bytes" -> JsNumber(bytes),
+        "ratio" -> JsNumber((BigDecimal(pages.map(_.length.toLong).sum) / bytes).setScale(2, BigDecimal.RoundingMode.HALF_UP)))
+    }
+
+    val result = JsObject(
+      "version" -> JsString(Config.version),
+      "events" -> JsNumber(data.lastSeq),
+      "pages" -> JsNumber(pages.size),
+      "writeContractIds" -> JsBoolean(Config.writeContractIds),
+      "identity" -> JsObject("bytes" -> JsNumber(pages.map(_.length.toLong).sum)),
+      "gzip" -> encoded(Gzip),
+      "deflate" -> encoded(Deflate))
+
+    Config.createDir(out.getAbsoluteFile.getParentFile)
+    val writer = new PrintWriter(out)
+    writer.write(result.prettyPrint)
+    writer.close()
+    println(result.prettyPrint)
+    println(s"results written to $out")
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.bench
+
+import java.util.UUID
+
+import org.bitcoinj.core._
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.{Contract, Offer}
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.{BtcBuyer, BtcSeller, TxSig}
+import org.joda.time.DateTime
+
+// posted events of signed trades for the benchmarks, the took offer event has signed open tx inputs,
+// fund tx escrow outputs and encrypted payment details as in TradeDataTxSpec
+
+class SignedTrades(params: NetworkParameters, contract: Contract) {
+
+  val paymentDetails = "Bank Name: Citibank, Account Holder: Fred Flintstone, Account Number: 12345-678910"
+
+  def unspentTx(coin: Coin, key: ECKey): TransactionOutput = {
+    val tx = new Transaction(params)
+    tx.addOutput(coin, key.toAddress(params))
+    tx.getOutput(0)
+  }
+
+  // offer, take, sign and fiat sent events of a new trade
+
+  def trade(reference: String, posted: Option[DateTime] = None): Seq[TradeProcess.PostedEvent] = {
+
+    val id = UUID.randomUUID()
+    val offer = Offer(id, contract, FiatMoney(CurrencyUnits.USD, "100.00"), BTCMoney(0, 20))
+
+    val btcBuyerWallet = new Wallet(params)
+    val btcBuyerKey = btcBuyerWallet.freshReceiveKey()
+    val btcBuyer = BtcBuyer(offer.coinToOpenEscrow)(btcBuyerWallet)
+      .copy(openTxUtxo = Seq(unspentTx(offer.coinToOpenEscrow, btcBuyerKey)))
+    val btcBuyOffer = offer.withBtcBuyer(btcBuyer)
+
+    val btcSellerWallet = new Wallet(params)
+    val btcSellerOpenKey = btcSellerWallet.freshReceiveKey()
+    val btcSellerFundKey = btcSellerWallet.freshReceiveKey()
+    val btcSeller = BtcSeller(btcBuyOffer.coinToOpenEscrow, btcBuyOffer.coinToFundEscrow)(btcSellerWallet)
+      .copy(openTxUtxo = Seq(unspentTx(btcBuyOffer.coinToOpenEscrow, btcSellerOpenKey)),
+        fundTxUtxo = Seq(unspentTx(btcBuyOffer.coinToFundEscrow, btcSellerFundKey)))
+
+    val paymentDetailsKey = AESCipher.genRanData(AESCipher.AES_KEY_LEN)
+    val btcSellerOpenTxSigs: Seq[TxSig] = btcBuyOffer.unsignedOpenTx(btcSeller).sign(btcSellerWallet).inputSigs
+    val btcSellerFundPayoutTxo = btcBuyOffer.unsignedFundTx(btcSeller, paymentDetailsKey).sign(btcSellerWallet).outputsToEscrow
+    val cipherPaymentDetails = offer.cipher(paymentDetailsKey, btcBuyer, btcSeller).encrypt(paymentDetails.getBytes(JsBinary.UTF8))
+
+    val takenOffer = btcBuyOffer.withBtcSeller(btcSeller, btcSellerOpenTxSigs, btcSellerFundPayoutTxo, cipherPaymentDetails)
+    val btcBuyerOpenTxSigs: Seq[TxSig] = takenOffer.unsignedOpenTx.sign(btcBuyerWallet).inputSigs
+
+    Seq(
+      TradeProcess.BtcBuyerCreatedOffer(id, btcBuyOffer, posted),
+      TradeProcess.BtcSellerTookOffer(id, btcSeller, btcSellerOpenTxSigs, btcSellerFundPayoutTxo, cipherPaymentDetails, posted),
+      TradeProcess.BtcBuyerSignedOffer(id, btcBuyer.payoutAddr, btcBuyerOpenTxSigs, Seq(), posted),
+      TradeProcess.BtcBuyerFiatSent(id, Some(reference), posted))
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package akka.persistence.fsm
+
+import java.util.concurrent.TimeUnit
+
+import akka.actor.{ActorSystem, ExtendedActorSystem}
+import akka.persistence.fsm.PersistentFSM.StateChangeEvent
+import org.bytabit.ft.util.JsBinary
+import org.openjdk.jmh.annotations._
+
+import scala.concurrent.duration._
+
+// journal writes and recovery reads of the state changes persisted with every trade process event,
+// in this package because StateChangeEvent is private to akka persistence
+//
+// gradle jmh -PjmhInclude=StateChangeJsonSerializerBench
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class StateChangeJsonSerializerBench {
+
+  var system: ActorSystem = _
+  var serializer: StateChangeJsonSerializer = _
+
+  val stateChange = StateChangeEvent("SIGNED", Some(30.seconds))
+  val stateChangeClass = Some(stateChange.getClass)
+  var stateChangeJson: Array[Byte] = _
+  var stateChangeBinary: Array[Byte] = _
+
+  @Setup
+  def setup(): Unit = {
+    system = ActorSystem("StateChangeJsonSerializerBench")
+    serializer = new StateChangeJsonSerializer(system.asInstanceOf[ExtendedActorSystem])
+
+    val jsValue = serializer.stateChangeJsonFormat.write(stateChange)
+    stateChangeJson = jsValue.compactPrint.getBytes(JsBinary.UTF8)
+    stateChangeBinary = JsBinary.write(jsValue)
+  }
+
+  @TearDown
+  def tearDown(): Unit = system.shutdown()
+
+  @Benchmark
+  def toBinary(): Array[Byte] = serializer.toBinary(stateChange)
+
+  @Benchmark
+  def fromJson(): AnyRef = serializer.fromBinary(stateChangeJson, stateChangeClass)
+
+  @Benchmark
+  def fromBinary(): AnyRef = serializer.fromBinary(stateChangeBinary, stateChangeClass)
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.bench
+
+import java.net.URL
+
+import akka.util.ByteString
+import org.bitcoinj.core._
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.arbitrator.ArbitratorManager
+import org.bytabit.ft.server.{EventServerJsonProtocol, PostedEvents, SerializedPostedEvents}
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.Contract
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.Arbitrator
+import org.joda.time.DateTime
+import spray.json._
+
+// trade and arbitrator events as posted to an event server, built once per jmh fork, the posted
+// events are a page of the events of signed trades
+
+object Fixtures extends EventServerJsonProtocol {
+
+  val params = NetworkParameters.fromID(NetworkParameters.ID_UNITTESTNET)
+
+  Context.propagate(new Context(params))
+
+  val url = new URL("http://bytabit.com/arbitrator")
+
+  val arbitrator = Arbitrator(url, 0.20, BTCMoney(0.10))(new Wallet(params))
+
+  val contract = Contract(arbitrator, CurrencyUnits.USD, PaymentMethod.swish)
+
+  val signedTrades = new SignedTrades(params, contract)
+
+  val trades = 25
+
+  val tradeEvents: Seq[TradeProcess.PostedEvent] = (1 to trades).flatMap(n => signedTrades.trade(s"reference-$n", Some(DateTime.now)))
+
+  val arbitratorEvents: Seq[ArbitratorManager.PostedEvent] = Seq(
+    ArbitratorManager.ArbitratorCreated(url, arbitrator, Some(DateTime.now)),
+    ArbitratorManager.ContractAdded(url, contract, Some(DateTime.now)))
+
+  val btcSellerTookOffer: TradeProcess.BtcSellerTookOffer =
+    tradeEvents.collectFirst { case e: TradeProcess.BtcSellerTookOffer => e }.get
+
+  val postedEvents = PostedEvents(arbitratorEvents, tradeEvents, Some(tradeEvents.size.toLong))
+
+  // as cached by the event server for each posted event
+
+  val serializedPostedEvents = SerializedPostedEvents(
+    arbitratorEvents.map(e => ByteString(e.toJson.compactPrint)),
+    tradeEvents.map(e => ByteString(e.toJson.compactPrint)),
+    postedEvents.cursor, tradeEvents.size.toLong)
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.bench
+
+import java.util.concurrent.TimeUnit
+
+import akka.actor.{ActorSystem, ExtendedActorSystem}
+import org.bytabit.ft.server.EventServer.TradeEventPosted
+import org.bytabit.ft.server.{EventServer, EventServerJsonSerializer}
+import org.bytabit.ft.trade.{TradeJsonSerializer, TradeProcess}
+import org.bytabit.ft.util.JsBinary
+import org.openjdk.jmh.annotations._
+
+// journal writes and recovery reads of posted trade events through the akka serializers, reads
+// are of json entries written before journal-binary and of binary entries
+//
+// gradle jmh -PjmhInclude=JournalSerializerBench
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class JournalSerializerBench {
+
+  import Fixtures._
+
+  var system: ActorSystem = _
+  var tradeSerializer: TradeJsonSerializer = _
+  var serverSerializer: EventServerJsonSerializer = _
+
+  val tookOffer: TradeProcess.Event = btcSellerTookOffer
+  val tookOfferClass = Some(tookOffer.getClass)
+  var tookOfferJson: Array[Byte] = _
+  var tookOfferBinary: Array[Byte] = _
+
+  val tradeEventPosted: EventServer.Event = TradeEventPosted(btcSellerTookOffer, Some(1L))
+  val tradeEventPostedClass = Some(tradeEventPosted.getClass)
+  var tradeEventPostedJson: Array[Byte] = _
+  var tradeEventPostedBinary: Array[Byte] = _
+
+  @Setup
+  def setup(): Unit = {
+    system = ActorSystem("JournalSerializerBench")
+    tradeSerializer = new TradeJsonSerializer(system.asInstanceOf[ExtendedActorSystem])
+    serverSerializer = new EventServerJsonSerializer(system.asInstanceOf[ExtendedActorSystem])
+
+    val tookOfferJsValue = tradeSerializer.tradeEventJsonFormat.write(tookOffer)
+    tookOfferJson = tookOfferJsValue.compactPrint.getBytes(JsBinary.UTF8)
+    tookOfferBinary = JsBinary.write(tookOfferJsValue)
+
+    val tradeEventPostedJsValue = serverSerializer.arbitratorServerManagerEventJsonFormat.write(tradeEventPosted)
+    tradeEventPostedJson = tradeEventPostedJsValue.compactPrint.getBytes(JsBinary.UTF8)
+    tradeEventPostedBinary = JsBinary.write(tradeEventPostedJsValue)
+  }
+
+  @TearDown
+  def tearDown(): Unit = system.shutdown()
+
+  // TradeJsonSerializer
+
+  @Benchmark
+  def tradeToBinary(): Array[Byte] = tradeSerializer.toBinary(tookOffer)
+
+  @Benchmark
+  def tradeFromJson(): AnyRef = tradeSerializer.fromBinary(tookOfferJson, tookOfferClass)
+
+  @Benchmark
+  def tradeFromBinary(): AnyRef = tradeSerializer.fromBinary(tookOfferBinary, tookOfferClass)
+
+  // EventServerJsonSerializer
+
+  @Benchmark
+  def serverToBinary(): Array[Byte] = serverSerializer.toBinary(tradeEventPosted)
+
+  @Benchmark
+  def serverFromJson(): AnyRef = serverSerializer.fromBinary(tradeEventPostedJson, tradeEventPostedClass)
+
+  @Benchmark
+  def serverFromBinary(): AnyRef = serverSerializer.fromBinary(tradeEventPostedBinary, tradeEventPostedClass)
+}
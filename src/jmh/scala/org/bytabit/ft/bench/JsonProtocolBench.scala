@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.bench
+
+import java.util.concurrent.TimeUnit
+
+import akka.util.ByteString
+import org.bytabit.ft.arbitrator.ArbitratorManager
+import org.bytabit.ft.server.EventServer.TradeEventPosted
+import org.bytabit.ft.server.{EventServer, EventServerJsonProtocol, PostedEvents}
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.wallet.model.BtcSeller
+import org.openjdk.jmh.annotations._
+import spray.json._
+
+// round trips of posted events through the json protocols, writes are to compact json strings
+// and reads are parsed from them as the event server and clients do
+//
+// gradle jmh -PjmhInclude=JsonProtocolBench
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class JsonProtocolBench extends EventServerJsonProtocol {
+
+  import Fixtures._
+
+  val tookOffer: TradeProcess.PostedEvent = btcSellerTookOffer
+  val tookOfferJson: String = tookOffer.toJson.compactPrint
+
+  val tradeEventPosted: EventServer.Event = TradeEventPosted(tookOffer, Some(1L))
+  val tradeEventPostedJson: String = tradeEventPosted.toJson.compactPrint
+
+  val postedEventsJson: ByteString = serializedPostedEvents.toByteString
+
+  val contractAdded: ArbitratorManager.PostedEvent = arbitratorEvents.last
+  val contractAddedJson: String = contractAdded.toJson.compactPrint
+
+  val btcSeller: BtcSeller = btcSellerTookOffer.btcSeller
+  val btcSellerJson: String = btcSeller.toJson.compactPrint
+
+  // TradeJsonProtocol
+
+  @Benchmark
+  def tradeWriteTookOffer(): String = tookOffer.toJson.compactPrint
+
+  @Benchmark
+  def tradeReadTookOffer(): TradeProcess.PostedEvent = tookOfferJson.parseJson.convertTo[TradeProcess.PostedEvent]
+
+  // EventServerJsonProtocol, a posted trade event as journaled and a page of /events
+
+  @Benchmark
+  def serverWriteTradeEventPosted(): String = tradeEventPosted.toJson.compactPrint
+
+  @Benchmark
+  def serverReadTradeEventPosted(): EventServer.Event = tradeEventPostedJson.parseJson.convertTo[EventServer.Event]
+
+  @Benchmark
+  def serverWritePostedEvents(): String = postedEvents.toJson.compactPrint
+
+  @Benchmark
+  def serverWriteSerializedPostedEvents(): ByteString = serializedPostedEvents.toByteString
+
+  @Benchmark
+  def serverReadPostedEvents(): PostedEvents = postedEventsJson.utf8String.parseJson.convertTo[PostedEvents]
+
+  // ArbitratorJsonProtocol
+
+  @Benchmark
+  def arbitratorWriteContractAdded(): String = contractAdded.toJson.compactPrint
+
+  @Benchmark
+  def arbitratorReadContractAdded(): ArbitratorManager.PostedEvent =
+    contractAddedJson.parseJson.convertTo[ArbitratorManager.PostedEvent]
+
+  // WalletJsonProtocol
+
+  @Benchmark
+  def walletWriteBtcSeller(): String = btcSeller.toJson.compactPrint
+
+  @Benchmark
+  def walletReadBtcSeller(): BtcSeller = btcSellerJson.parseJson.convertTo[BtcSeller]
+}
@@ -29,14 +29,14 @@ class StateChangeJsonSerializer(override val system: ExtendedActorSystem)
 
   def fromBinary(bytes: Array[Byte], manifest: Option[Class[_]]): AnyRef = manifest match {
     case Some(clazz: Class[_]) ⇒
-      bytesToString(bytes).parseJson.convertTo[PersistentFSM.StateChangeEvent]
+      bytesToJson(bytes).convertTo[PersistentFSM.StateChangeEvent]
     case _ ⇒
       throw new IllegalArgumentException("No manifest found")
   }
 
   def toBinary(obj: AnyRef) = obj match {
     case o: PersistentFSM.StateChangeEvent =>
-      stringToBytes(o.toJson.toString())
+      jsonToBytes(o.toJson)
     case _ =>
       throw new IllegalArgumentException("Wrong type found")
   }
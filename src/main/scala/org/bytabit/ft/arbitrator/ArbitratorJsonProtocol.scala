@@ -35,7 +35,7 @@ trait ArbitratorJsonProtocol extends TradeJsonProtocol {
     simpleName(classOf[ContractRemoved]) -> contractRemovedJsonFormat
   )
 
-  implicit def arbitratorEventJsonFormat = new EventJsonFormat[ArbitratorManager.Event](arbitratorEventJsonFormatMap)
+  implicit lazy val arbitratorEventJsonFormat = new EventJsonFormat[ArbitratorManager.Event](arbitratorEventJsonFormatMap)
 
   implicit def arbitratorPostedEventJsonFormat = new RootJsonFormat[ArbitratorManager.PostedEvent] {
 
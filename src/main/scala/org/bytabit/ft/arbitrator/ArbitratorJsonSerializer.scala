@@ -28,14 +28,14 @@ class ArbitratorJsonSerializer(override val system: ExtendedActorSystem)
 
   def fromBinary(bytes: Array[Byte], manifest: Option[Class[_]]): AnyRef = manifest match {
     case Some(clazz: Class[_]) ⇒
-      bytesToString(bytes).parseJson.convertTo[ArbitratorManager.Event]
+      bytesToJson(bytes).convertTo[ArbitratorManager.Event]
     case _ ⇒
       throw new IllegalArgumentException("No manifest found")
   }
 
   def toBinary(obj: AnyRef) = obj match {
     case o: ArbitratorManager.Event =>
-      stringToBytes(o.toJson.toString())
+      jsonToBytes(o.toJson)
     case _ =>
       throw new IllegalArgumentException("Wrong type found")
   }
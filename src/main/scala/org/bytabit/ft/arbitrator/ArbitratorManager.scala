@@ -197,15 +197,15 @@ class ArbitratorManager(arbitrator: Arbitrator) extends PersistentFSM[Arbitrator
 
   def postArbitratorEvent(url: URL, postedEvent: ArbitratorManager.PostedEvent, self: ActorRef): Unit = {
 
-    val tradeUri = s"/arbitrator"
+    val tradeUri = s"${url.getPath.stripSuffix("/")}/arbitrator"
 
     Marshal(postedEvent.toJson).to[RequestEntity].onSuccess {
 
       case reqEntity =>
 
         val req = Source.single(HttpRequest(uri = tradeUri, method = HttpMethods.POST,
-          entity = reqEntity.withContentType(ContentTypes.`application/json`)))
-          .via(connectionFlow(url))
+          headers = List(HttpCoding.acceptEncoding), entity = reqEntity.withContentType(ContentTypes.`application/json`)))
+          .via(connectionFlow(url)).map(HttpCoding.decode)
 
         req.runWith(Sink.head).onComplete {
 
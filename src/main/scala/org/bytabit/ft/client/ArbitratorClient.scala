@@ -34,7 +34,7 @@ object ArbitratorClient {
 
   def props(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: ActorRef) = Props(new ArbitratorClient(url, tradeWalletMgr, escrowWalletMgr))
 
-  def name(url: URL) = s"${ArbitratorClient.getClass.getSimpleName}-${url.getHost}-${url.getPort}"
+  def name(url: URL) = s"${ArbitratorClient.getClass.getSimpleName}-${url.getHost}-${url.getPort}${url.getPath.stripSuffix("/").replace('/', '-')}"
 }
 
 case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: ActorRef) extends EventClient {
@@ -49,8 +49,14 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
 
     // startup
 
-    case Event(Start | StateTimeout, d) =>
-      reqPostedEvents(url, None)
+    case Event(Start, d) =>
+      reqState(url)
+      stay()
+
+    // retry unless the state is still being read
+
+    case Event(StateTimeout, d) =>
+      if (!paging.get) reqState(url)
       stay()
 
     // create arbitrator
@@ -86,7 +92,7 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
 
     // startup
 
-    case Event(Start, ActiveServer(lp, a, at)) =>
+    case Event(Start, ActiveServer(lp, a, at, lc)) =>
 
       // create and start arbitrator
       createArbitratorManager(a) ! ArbitratorManager.Start
@@ -95,38 +101,65 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
       at.get(ARBITRATOR).foreach(_.foreach(t => createArbitrateTrade(t._1, t._2) ! ArbitrateProcess.Start))
 
       // request new events from event server
-      reqPostedEvents(url, Some(lp))
+      reqPostedEvents(url, Some(lp), lc)
 
       context.parent ! ServerOnline(a.url)
       stay()
 
-    case Event(StateTimeout, ActiveServer(lp, a, at)) =>
-      reqPostedEvents(url, Some(lp))
+    // poll for new events unless they are being streamed or pages of them are being read
+
+    case Event(StateTimeout, ActiveServer(lp, a, at, lc)) =>
+      if (!streaming.get && !paging.get) reqPostedEvents(url, Some(lp), lc)
       stay()
 
     case Event(son: ServerOnline, d) =>
       stay()
 
-    case Event(npe: NoPostedEventsReceived, d) =>
+    // caught up, stream new events
+
+    case Event(npe: NoPostedEventsReceived, ActiveServer(lp, a, at, lc)) =>
+      startStreamingEvents(url, lc)
       stay()
 
-    case Event(soff: ServerOffline, ActiveServer(lp, a, at)) =>
+    // update cursor and request next page if there may be more events, otherwise stream new events
+
+    case Event(ReceivePostedEventsCursor(c, more), ActiveServer(lp, a, at, lc)) =>
+      stay() applying PostedEventsCursorReceived(a.url, c) andThen { ud =>
+        if (more) reqPostedEvents(url, Some(lp), Some(c))
+        else startStreamingEvents(url, Some(c))
+      }
+
+    // update cursor and acknowledge streamed events
+
+    case Event(ReceiveStreamedEventsCursor(c), ActiveServer(lp, a, at, lc)) =>
+      stay() applying PostedEventsCursorReceived(a.url, c) replying c
+
+    case Event(soff: ServerOffline, ActiveServer(lp, a, at, lc)) =>
       goto(OFFLINE) andThen { ud =>
         context.parent ! soff
       }
 
     // send arbitrator commands to ArbitratorManager
 
-    case Event(ac: ArbitratorManager.Command, ActiveServer(lp, a, at)) =>
+    case Event(ac: ArbitratorManager.Command, ActiveServer(lp, a, at, lc)) =>
       arbitratorManager(a) match {
         case Some(ref) => ref ! ac
         case None => log.error(s"Could not send command to arbitrator ${a.url}")
       }
       stay()
 
-    // send received posted arbitrator events to ArbitratorManager
+    // send received posted arbitrator events to ArbitratorManager, contracts are kept so offers that
+    // refer to them by id can be read after a restart
+
+    case Event(ReceivePostedArbitratorEvent(ca: ArbitratorManager.ContractAdded), ActiveServer(lp, a, at, lc)) =>
+      stay() applying ContractReceived(a.url, ca.contract) andThen { ud =>
+        arbitratorManager(a) match {
+          case Some(ref) => ref ! ca
+          case None => log.error(s"Could not send event to arbitrator ${a.url}")
+        }
+      }
 
-    case Event(ReceivePostedArbitratorEvent(ae), ActiveServer(lp, a, at)) =>
+    case Event(ReceivePostedArbitratorEvent(ae), ActiveServer(lp, a, at, lc)) =>
       arbitratorManager(a) match {
         case Some(ref) => ref ! ae
         case None => log.error(s"Could not send event to arbitrator ${a.url}")
@@ -135,7 +168,7 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
 
     // update latest posted time and send posted arbitrator events to parent
 
-    case Event(ae: ArbitratorManager.PostedEvent, ActiveServer(lp, a, at)) =>
+    case Event(ae: ArbitratorManager.PostedEvent, ActiveServer(lp, a, at, lc)) =>
       stay() applying PostedEventReceived(a.url, ae.posted) andThen { ud =>
         context.parent ! ae
       }
@@ -152,7 +185,7 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
     // handle posted trade events
 
     // create trade
-    case Event(ReceivePostedTradeEvent(bco: BtcBuyerCreatedOffer), ActiveServer(lp, a, at)) =>
+    case Event(ReceivePostedTradeEvent(bco: BtcBuyerCreatedOffer), ActiveServer(lp, a, at, lc)) =>
       tradeProcess(bco.id) match {
         case Some(ref) =>
           ref ! bco
@@ -162,13 +195,13 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
       stay()
 
     // add trade and update latestUpdate
-    case Event(sco: TradeProcess.BtcBuyerCreatedOffer, ActiveServer(lp, a, at)) =>
+    case Event(sco: TradeProcess.BtcBuyerCreatedOffer, ActiveServer(lp, a, at, lc)) =>
       stay() applying TradeAdded(a.url, ARBITRATOR, sco.id, sco.offer, sco.posted) andThen { ud =>
         context.parent ! sco
       }
 
     // remove trade and update latestUpdate
-    case Event(sco: TradeProcess.BtcBuyerCanceledOffer, ActiveServer(lp, a, at)) =>
+    case Event(sco: TradeProcess.BtcBuyerCanceledOffer, ActiveServer(lp, a, at, lc)) =>
       stay() applying TradeRemoved(a.url, sco.id, sco.posted) andThen { ud =>
         context.parent ! sco
         stopTrade(sco.id)
@@ -176,7 +209,7 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
 
     // send received posted trade events to trades
 
-    case Event(ReceivePostedTradeEvent(te), ActiveServer(lp, a, at)) =>
+    case Event(ReceivePostedTradeEvent(te), ActiveServer(lp, a, at, lc)) =>
       tradeProcess(te.id) match {
         case Some(ref) => ref ! te
         case None => log.error(s"Could not send event to trade ${te.id}")
@@ -185,20 +218,20 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
 
     // update latest posted time and send posted trade events to parent
 
-    case Event(te: TradeProcess.PostedEvent, ActiveServer(lp, a, at)) =>
+    case Event(te: TradeProcess.PostedEvent, ActiveServer(lp, a, at, lc)) =>
       stay() applying PostedEventReceived(a.url, te.posted) andThen { ud =>
         context.parent ! te
       }
 
     // send other non-posted events to parent
-    case Event(te: TradeProcess.Event, ActiveServer(lp, a, at)) =>
+    case Event(te: TradeProcess.Event, ActiveServer(lp, a, at, lc)) =>
       context.parent ! te
       stay()
   }
 
   when(OFFLINE, stateTimeout = 30 second) {
 
-    case Event(Start, ActiveServer(lp, a, at)) =>
+    case Event(Start, ActiveServer(lp, a, at, lc)) =>
 
 //      // create and start arbitrator
 //      createArbitratorManager(a) ! ArbitratorManager.Start
@@ -207,16 +240,16 @@ case class ArbitratorClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr:
 //      at.get(ARBITRATOR).foreach(_.foreach(t => createArbitrateTrade(t._1, t._2) ! ArbitrateProcess.Start))
 
       // request new events from event server
-      reqPostedEvents(url, Some(lp))
+      reqPostedEvents(url, Some(lp), lc)
 
       context.parent ! ServerOffline(a.url)
       stay()
 
-    case Event(StateTimeout, ActiveServer(lp, a, at)) =>
-      reqPostedEvents(a.url, Some(lp))
+    case Event(StateTimeout, ActiveServer(lp, a, at, lc)) =>
+      reqPostedEvents(a.url, Some(lp), lc)
       stay()
 
-    case Event(ServerOnline(_), ActiveServer(lp, a, at)) =>
+    case Event(ServerOnline(_), ActiveServer(lp, a, at, lc)) =>
       goto(ONLINE) andThen { ud =>
 
         // create and start arbitrator
@@ -40,7 +40,7 @@ trait ClientManagerJsonProtocol extends WalletJsonProtocol {
 
   implicit def paymentDetailsRemovedJsonFormat = jsonFormat(PaymentDetailsRemoved.apply, "currencyUnit", "paymentMethod")
 
-  implicit def clientManagerEventJsonFormat = new EventJsonFormat[ClientManager.Event](
+  implicit lazy val clientManagerEventJsonFormat = new EventJsonFormat[ClientManager.Event](
     Map(simpleName(classOf[ClientCreated]) -> clientCreatedJsonFormat,
       simpleName(classOf[ServerAdded]) -> serverAddedJsonFormat,
       simpleName(classOf[ServerRemoved]) -> serverRemovedJsonFormat,
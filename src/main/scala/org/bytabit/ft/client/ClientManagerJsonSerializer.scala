@@ -27,14 +27,14 @@ class ClientManagerJsonSerializer(override val system: ExtendedActorSystem)
 
   override def fromBinary(bytes: Array[Byte], manifest: Option[Class[_]]): AnyRef = manifest match {
     case Some(clazz: Class[_]) ⇒
-      bytesToString(bytes).parseJson.convertTo[ClientManager.Event]
+      bytesToJson(bytes).convertTo[ClientManager.Event]
     case _ ⇒
       throw new IllegalArgumentException("No manifest found")
   }
 
   def toBinary(obj: AnyRef) = obj match {
     case o: ClientManager.Event =>
-      stringToBytes(o.toJson.toString())
+      jsonToBytes(o.toJson)
     case _ =>
       throw new IllegalArgumentException("Wrong type found")
   }
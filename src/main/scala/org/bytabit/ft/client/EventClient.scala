@@ -18,25 +18,32 @@ package org.bytabit.ft.client
 
 import java.net.URL
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
 
 import akka.actor.ActorRef
 import akka.http.scaladsl.Http
 import akka.http.scaladsl.model._
-import akka.http.scaladsl.unmarshalling.Unmarshal
+import akka.pattern.ask
 import akka.persistence.fsm.PersistentFSM
 import akka.persistence.fsm.PersistentFSM.FSMState
 import akka.stream.ActorMaterializer
+import akka.stream.io.Framing
 import akka.stream.scaladsl.{Flow, Sink, Source}
+import akka.util.{ByteString, Timeout}
+import org.bitcoinj.core.Sha256Hash
 import org.bytabit.ft.arbitrator.ArbitratorManager
 import org.bytabit.ft.client.EventClient._
-import org.bytabit.ft.server.PostedEvents
+import org.bytabit.ft.server.{PostedEvents, PostedEventsFilter}
 import org.bytabit.ft.trade.TradeProcess
 import org.bytabit.ft.trade.model._
-import org.bytabit.ft.util.DateTimeOrdering
+import org.bytabit.ft.util.{Config, DateTimeOrdering, HttpCoding}
 import org.bytabit.ft.wallet.model.Arbitrator
 import org.joda.time.DateTime
+import spray.json._
 
 import scala.concurrent.Future
+import scala.concurrent.duration._
 import scala.language.postfixOps
 import scala.reflect.{ClassTag, _}
 import scala.util.{Failure, Success}
@@ -57,6 +64,13 @@ object EventClient {
     assert(event.posted.isDefined)
   }
 
+  final case class ReceivePostedEventsCursor(cursor: Long, more: Boolean) extends Command
+
+  final case class ReceiveStreamedEventsCursor(cursor: Long) extends Command
+
+  // replied to once the events received before it are handled
+  case object AckReceivedEvents extends Command
+
   // events
 
   sealed trait Event {
@@ -73,12 +87,16 @@ object EventClient {
 
   final case class PostedEventReceived(url: URL, posted: Option[DateTime]) extends Event
 
+  final case class PostedEventsCursorReceived(url: URL, cursor: Long) extends Event
+
   // arbitrator events
 
   final case class ArbitratorAdded(url: URL, arbitrator: Arbitrator, posted: Option[DateTime] = None) extends Event
 
   final case class ArbitratorRemoved(url: URL, posted: Option[DateTime] = None) extends Event
 
+  final case class ContractReceived(url: URL, contract: Contract) extends Event
+
 
   // trade events
 
@@ -116,13 +134,17 @@ object EventClient {
   }
 
   case class ActiveServer(latestPosted: DateTime, arbitrator: Arbitrator,
-                          trades: Map[Role, Map[UUID, BtcBuyOffer]] = Map()) extends Data {
+                          trades: Map[Role, Map[UUID, BtcBuyOffer]] = Map(),
+                          cursor: Option[Long] = None) extends Data {
 
     val serverUrl = arbitrator.url
 
     def postedEventReceived(posted: DateTime) =
       this.copy(latestPosted = latest(posted, latestPosted))
 
+    def cursorReceived(c: Long) =
+      this.copy(cursor = Some((cursor.toSeq :+ c).max))
+
     def tradeAdded(role: Role, id: UUID, offer: BtcBuyOffer, posted: DateTime) = {
       val updatedRoleTrades: Map[UUID, BtcBuyOffer] = trades.getOrElse(role, Map()) + (id -> offer)
       this.copy(trades = trades + (role -> updatedRoleTrades),
@@ -175,55 +197,278 @@ trait EventClient extends PersistentFSM[EventClient.State, EventClient.Data, Eve
       case (PostedEventReceived(u, Some(p)), as: ActiveServer) =>
         as.postedEventReceived(p)
 
+      case (PostedEventsCursorReceived(u, c), as: ActiveServer) =>
+        as.cursorReceived(c)
+
+      case (ContractReceived(u, c), as: ActiveServer) =>
+        contractRead(c)
+        as
+
       case _ => data
     }
 
+  // contracts added by the arbitrator, offers served with only their contract's id are read with these, a
+  // contract is known once its ContractAdded event is read and is persisted with ContractReceived so it's
+  // known again after a restart
+
+  val contracts = new ConcurrentHashMap[Sha256Hash, Contract]()
+
+  def contractRead(c: Contract): Unit = contracts.put(c.id, c)
+
+  override def knownContract(id: Sha256Hash): Option[Contract] = Option(contracts.get(id))
+
+  def arbitratorEventRead(ae: ArbitratorManager.PostedEvent): Unit = ae match {
+    case ca: ArbitratorManager.ContractAdded => contractRead(ca.contract)
+    case _ =>
+  }
+
+  // acknowledge received events in any state, see receivePostedEvents
+
+  whenUnhandled {
+    case Event(AckReceivedEvents, d) =>
+      stay() replying AckReceivedEvents
+  }
+
   // http flow
 
   def connectionFlow(url: URL): Flow[HttpRequest, HttpResponse, Future[Http.OutgoingConnection]] =
     Http().outgoingConnection(host = url.getHost, port = url.getPort)
 
+  // json frames are parsed from their bytes without decoding them to a string first
+
+  def parse(json: ByteString): JsValue = JsonParser(ParserInput(json.toArray))
+
   // http get events requester and handler
 
-  def reqPostedEvents(url: URL, since: Option[DateTime]): Unit = {
+  // trade events wanted from the server, paged and streamed requests are filtered by the server
+
+  def eventsFilter: PostedEventsFilter = PostedEventsFilter()
+
+  // entity tag of the last caught up events response, server replies not modified if nothing new was posted
+  val eventsTag = new AtomicReference[Option[(URL, String)]](None)
+
+  def receivedEventsTag(url: URL, headers: Seq[HttpHeader]): Unit =
+    eventsTag.set(headers.find(_.is("etag")).map(h => (url, h.value)))
+
+  def eventsTagHeader(url: URL): List[HttpHeader] = eventsTag.get.collect {
+    case (u, t) if u == url => headers.RawHeader("If-None-Match", t)
+  }.toList
 
-    val query = since match {
-      case Some(dt) => s"?since=${dateTimeFormatter.print(dt)}"
-      case None => ""
+  // true from a posted events or state request until its last page is read, polling is skipped until then
+
+  val paging = new AtomicBoolean(false)
+
+  // request a page of events after the cursor, if there is no cursor yet but a latest posted
+  // time is known the server returns all events since then along with a cursor to continue from
+
+  def reqPostedEvents(url: URL, since: Option[DateTime], after: Option[Long]): Unit = {
+
+    paging.set(true)
+
+    val limit = Config.eventsPageLimit
+    val paged = after.isDefined || since.isEmpty
+
+    val query = (since, after) match {
+      case (_, Some(c)) => s"?after=$c&limit=$limit${eventsFilter.query}"
+      case (Some(dt), None) => s"?since=${dateTimeFormatter.print(dt)}"
+      case (None, None) => s"?limit=$limit${eventsFilter.query}"
     }
 
-    val arbitratorUri = s"/events$query"
+    val arbitratorUri = s"${url.getPath.stripSuffix("/")}/events$query"
 
-    val req = Source.single(HttpRequest(uri = arbitratorUri, method = HttpMethods.GET))
-      .via(connectionFlow(url))
+    val req = Source.single(HttpRequest(uri = arbitratorUri, method = HttpMethods.GET,
+      headers = HttpCoding.acceptEncoding :: eventsTagHeader(url)))
+      .via(connectionFlow(url)).map(HttpCoding.decode)
 
     req.runWith(Sink.head).onComplete {
 
       case Success(HttpResponse(StatusCodes.OK, headers, entity, protocol)) =>
         log.debug(s"Response from ${url.toString} $arbitratorUri OK")
-        Unmarshal(entity).to[PostedEvents].onSuccess {
-          case PostedEvents(aes, tes) =>
-            self ! ServerOnline(url)
-            aes.foreach(self ! ReceivePostedArbitratorEvent(_))
-            tes.foreach(self ! ReceivePostedTradeEvent(_))
-          case _ =>
-            log.error("No arbitrator events in response.")
-        }
+        receivedEventsTag(url, headers)
+        self ! ServerOnline(url)
+        // a full page means there may be more events waiting
+        receivePostedEvents(url, entity, received => paged && received >= limit)
 
       case Success(HttpResponse(StatusCodes.NoContent, headers, entity, protocol)) =>
         log.debug(s"No new events from ${url.toString}$arbitratorUri")
+        paging.set(false)
+        receivedEventsTag(url, headers)
+        self ! ServerOnline(url)
+        self ! NoPostedEventsReceived(url)
+
+      case Success(HttpResponse(StatusCodes.NotModified, headers, entity, protocol)) =>
+        log.debug(s"Events not modified from ${url.toString}$arbitratorUri")
+        paging.set(false)
         self ! ServerOnline(url)
         self ! NoPostedEventsReceived(url)
 
       case Success(HttpResponse(sc, headers, entity, protocol)) =>
         log.error(s"Response from ${url.toString}$arbitratorUri ${sc.toString()}")
+        paging.set(false)
 
       case Failure(failure) =>
         log.debug(s"No Response from ${url.toString}: $failure")
+        paging.set(false)
         self ! ServerOffline(url)
     }
   }
 
+  // posted events responses are read one event at a time as they arrive instead of buffered whole, at
+  // most events-receive-batch events are sent to this client before it acknowledges handling them,
+  // latest posted times are persisted as each event is handled and the cursor at the end, paging stays
+  // set if the next page will be requested
+
+  def receivePostedEvents(url: URL, entity: ResponseEntity, more: Int => Boolean): Unit = {
+
+    val scanner = new PostedEventsScanner(Config.eventsStreamMaxFrame)
+
+    entity.dataBytes
+      .mapConcat(scanner.frames)
+      .grouped(Config.eventsReceiveBatch)
+      .mapAsync(1)(receiveFrames)
+      .runFold((0, Option.empty[Long])) { case ((received, cursor), (r, c)) => (received + r, c.orElse(cursor)) }
+      .onComplete {
+        case Success((received, cursor)) =>
+          if (cursor.isEmpty || !more(received)) paging.set(false)
+          cursor.foreach(c => self ! ReceivePostedEventsCursor(c, more(received)))
+        case Failure(failure) =>
+          log.error(s"Failed to read events from ${url.toString}: $failure")
+          paging.set(false)
+      }
+  }
+
+  def receiveFrames(frames: Seq[PostedEventsScanner.Frame]): Future[(Int, Option[Long])] = {
+    var cursor = Option.empty[Long]
+    frames.foreach {
+      case PostedEventsScanner.ArbitratorEventFrame(json) =>
+        val ae = parse(json).convertTo[ArbitratorManager.PostedEvent]
+        arbitratorEventRead(ae)
+        self ! ReceivePostedArbitratorEvent(ae)
+      case PostedEventsScanner.TradeEventFrame(json) =>
+        self ! ReceivePostedTradeEvent(parse(json).convertTo[TradeProcess.PostedEvent])
+      case PostedEventsScanner.CursorFrame(c) =>
+        cursor = Some(c)
+    }
+    val received = frames.count(!_.isInstanceOf[PostedEventsScanner.CursorFrame])
+    self.ask(AckReceivedEvents)(Timeout(30 seconds)).map(_ => (received, cursor))
+  }
+
+  // http state requester and handler
+
+  // a new client requests the server's current state instead of all events ever posted, then continues
+  // with events after the state's cursor, servers without /state are asked for all events, the state's
+  // entity tag is kept like an events response's
+
+  def reqState(url: URL): Unit = {
+
+    paging.set(true)
+
+    val stateUri = Uri(s"${url.getPath.stripSuffix("/")}/state").withQuery(Uri.Query(eventsFilter.params: _*))
+
+    val req = Source.single(HttpRequest(uri = stateUri, method = HttpMethods.GET,
+      headers = HttpCoding.acceptEncoding :: eventsTagHeader(url)))
+      .via(connectionFlow(url)).map(HttpCoding.decode)
+
+    req.runWith(Sink.head).onComplete {
+
+      case Success(HttpResponse(StatusCodes.OK, headers, entity, protocol)) =>
+        log.debug(s"Response from ${url.toString}$stateUri OK")
+        receivedEventsTag(url, headers)
+        self ! ServerOnline(url)
+        receivePostedEvents(url, entity, received => false)
+
+      case Success(HttpResponse(StatusCodes.NoContent, headers, entity, protocol)) =>
+        log.debug(s"No state from ${url.toString}$stateUri")
+        paging.set(false)
+        receivedEventsTag(url, headers)
+        self ! ServerOnline(url)
+        self ! NoPostedEventsReceived(url)
+
+      case Success(HttpResponse(StatusCodes.NotModified, headers, entity, protocol)) =>
+        log.debug(s"State not modified from ${url.toString}$stateUri")
+        paging.set(false)
+        self ! ServerOnline(url)
+        self ! NoPostedEventsReceived(url)
+
+      case Success(HttpResponse(StatusCodes.NotFound, headers, entity, protocol)) =>
+        log.debug(s"No state from ${url.toString}$stateUri, requesting all events")
+        entity.dataBytes.runWith(Sink.ignore)
+        reqPostedEvents(url, None, None)
+
+      case Success(HttpResponse(sc, headers, entity, protocol)) =>
+        log.error(s"Response from ${url.toString}$stateUri ${sc.toString()}")
+        paging.set(false)
+        entity.dataBytes.runWith(Sink.ignore)
+
+      case Failure(failure) =>
+        log.debug(s"No Response from ${url.toString}: $failure")
+        paging.set(false)
+        self ! ServerOffline(url)
+    }
+  }
+
+  // http events stream requester and handler
+
+  // true while events are streamed from the server, polling is skipped while streaming
+  val streaming = new AtomicBoolean(false)
+
+  // false if the server doesn't support streaming
+  val streamSupported = new AtomicBoolean(Config.eventsStreamEnabled)
+
+  def startStreamingEvents(url: URL, after: Option[Long]): Unit =
+    if (after.isDefined && streamSupported.get && streaming.compareAndSet(false, true)) {
+      streamPostedEvents(url, after.get)
+    }
+
+  def streamPostedEvents(url: URL, after: Long): Unit = {
+
+    val streamUri = s"${url.getPath.stripSuffix("/")}/events/stream?after=$after${eventsFilter.query}"
+
+    val req = Source.single(HttpRequest(uri = streamUri, method = HttpMethods.GET))
+      .via(connectionFlow(url))
+
+    req.runWith(Sink.head).onComplete {
+
+      case Success(HttpResponse(StatusCodes.OK, headers, entity, protocol)) =>
+        log.debug(s"Streaming events from ${url.toString}$streamUri")
+        // next event isn't read until the cursor for the previous one is persisted
+        entity.dataBytes
+          .via(Framing.delimiter(ByteString("\n"), Config.eventsStreamMaxFrame, allowTruncation = true))
+          .filter(_.nonEmpty)
+          .map(parse(_).convertTo[PostedEvents])
+          .map { pe => pe.arbitratorEvents.foreach(arbitratorEventRead); pe }
+          .mapAsync(1)(receiveStreamedEvents)
+          .runWith(Sink.ignore).onComplete { r =>
+          log.debug(s"Stopped streaming events from ${url.toString}: $r")
+          streaming.set(false)
+        }
+
+      case Success(HttpResponse(StatusCodes.NotFound, headers, entity, protocol)) =>
+        log.debug(s"No events stream from ${url.toString}$streamUri, polling only")
+        entity.dataBytes.runWith(Sink.ignore)
+        streamSupported.set(false)
+        streaming.set(false)
+
+      case Success(HttpResponse(sc, headers, entity, protocol)) =>
+        log.error(s"Response from ${url.toString}$streamUri ${sc.toString()}")
+        entity.dataBytes.runWith(Sink.ignore)
+        streaming.set(false)
+
+      case Failure(failure) =>
+        log.debug(s"No Response from ${url.toString}: $failure")
+        streaming.set(false)
+    }
+  }
+
+  def receiveStreamedEvents(pe: PostedEvents): Future[Any] = pe match {
+    case PostedEvents(aes, tes, Some(c)) =>
+      aes.foreach(self ! ReceivePostedArbitratorEvent(_))
+      tes.foreach(self ! ReceivePostedTradeEvent(_))
+      self.ask(ReceiveStreamedEventsCursor(c))(Timeout(30 seconds))
+    case _ =>
+      Future.successful(pe)
+  }
+
   // create ArbitratorManager
   def createArbitratorManager(arbitrator: Arbitrator): ActorRef = {
     context.actorOf(ArbitratorManager.props(arbitrator), ArbitratorManager.name(arbitrator))
@@ -26,20 +26,26 @@ trait EventClientJsonProtocol extends ArbitratorJsonProtocol {
 
   implicit def arbitratorAddedJsonFormat = jsonFormat3(ArbitratorAdded)
 
+  implicit def contractReceivedJsonFormat = jsonFormat2(ContractReceived)
+
   implicit def tradeAddedJsonFormat = jsonFormat5(TradeAdded)
 
   implicit def tradeRemovedJsonFormat = jsonFormat3(TradeRemoved)
 
   implicit def postedTradeEventReceivedJsonFormat = jsonFormat2(PostedEventReceived)
 
+  implicit def postedEventsCursorReceivedJsonFormat = jsonFormat2(PostedEventsCursorReceived)
+
   val eventClientJsonFormatMap: Map[String, RootJsonFormat[_ <: EventClient.Event]] = Map(
     simpleName(classOf[ArbitratorAdded]) -> arbitratorAddedJsonFormat,
+    simpleName(classOf[ContractReceived]) -> contractReceivedJsonFormat,
     simpleName(classOf[TradeAdded]) -> tradeAddedJsonFormat,
     simpleName(classOf[TradeRemoved]) -> tradeRemovedJsonFormat,
-    simpleName(classOf[PostedEventReceived]) -> postedTradeEventReceivedJsonFormat
+    simpleName(classOf[PostedEventReceived]) -> postedTradeEventReceivedJsonFormat,
+    simpleName(classOf[PostedEventsCursorReceived]) -> postedEventsCursorReceivedJsonFormat
   )
 
-  implicit def eventClientJsonFormat = new EventJsonFormat[EventClient.Event](eventClientJsonFormatMap)
+  implicit lazy val eventClientJsonFormat = new EventJsonFormat[EventClient.Event](eventClientJsonFormatMap)
 
-  implicit def postedEventsJsonFormat = jsonFormat(PostedEvents.apply, "arbitratorEvents", "tradeEvents")
+  implicit def postedEventsJsonFormat = jsonFormat(PostedEvents.apply, "arbitratorEvents", "tradeEvents", "cursor")
 }
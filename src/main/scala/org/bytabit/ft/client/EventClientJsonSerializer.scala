@@ -28,14 +28,14 @@ class EventClientJsonSerializer(override val system: ExtendedActorSystem)
 
   def fromBinary(bytes: Array[Byte], manifest: Option[Class[_]]): AnyRef = manifest match {
     case Some(clazz: Class[_]) ⇒
-      bytesToString(bytes).parseJson.convertTo[EventClient.Event]
+      bytesToJson(bytes).convertTo[EventClient.Event]
     case _ ⇒
       throw new IllegalArgumentException("No manifest found")
   }
 
   def toBinary(obj: AnyRef) = obj match {
     case o: EventClient.Event =>
-      stringToBytes(o.toJson.toString())
+      jsonToBytes(o.toJson)
     case _ =>
       throw new IllegalArgumentException("Wrong type found")
   }
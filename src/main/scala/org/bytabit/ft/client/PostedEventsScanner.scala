@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.client
+
+import akka.util.{ByteString, ByteStringBuilder}
+import org.bytabit.ft.client.PostedEventsScanner._
+
+object PostedEventsScanner {
+
+  sealed trait Frame
+
+  final case class ArbitratorEventFrame(json: ByteString) extends Frame
+
+  final case class TradeEventFrame(json: ByteString) extends Frame
+
+  final case class CursorFrame(cursor: Long) extends Frame
+
+  val arbitratorEvents = "arbitratorEvents"
+  val tradeEvents = "tradeEvents"
+  val cursor = "cursor"
+}
+
+// splits a PostedEvents json object into the json of each event and the cursor as its bytes
+// arrive, so a response isn't buffered and parsed whole, an event larger than maxFrame fails
+//
+// a scanner keeps the state of one response, use a new one for each
+
+class PostedEventsScanner(maxFrame: Int) {
+
+  // nesting of objects and arrays, 1 is inside the PostedEvents object
+  private var depth = 0
+  private var inString = false
+  private var escaped = false
+
+  // field and scalar value of the PostedEvents object
+  private val name = new StringBuilder
+  private var field = ""
+  private val scalar = new StringBuilder
+  private var inScalar = false
+
+  // event being read, bytes of previous chunks are in builder
+  private var capturing = false
+  private val builder = new ByteStringBuilder
+
+  def frames(chunk: ByteString): List[Frame] = {
+
+    var found = List.empty[Frame]
+    var start = 0
+    var i = 0
+
+    while (i < chunk.length) {
+      val c = chunk(i).toChar
+
+      if (inString) {
+        if (escaped) escaped = false
+        else if (c == '\\') escaped = true
+        else if (c == '"') inString = false
+        else if (depth == 1) name.append(c)
+      } else c match {
+
+        case '"' =>
+          inString = true
+          if (depth == 1) name.clear()
+
+        case ':' if depth == 1 =>
+          field = name.toString
+          scalar.clear()
+          inScalar = true
+
+        case '{' | '[' =>
+          if (depth == 2 && c == '{') {
+            capturing = true
+            start = i
+          }
+          if (depth == 1) inScalar = false
+          depth += 1
+
+        case '}' | ']' =>
+          if (depth == 1) found = scalarFrame(found)
+          depth -= 1
+          if (depth == 2 && capturing) {
+            builder.append(chunk.slice(start, i + 1))
+            found = eventFrame(builder.result()) ++ found
+            builder.clear()
+            capturing = false
+          }
+
+        case ',' if depth == 1 =>
+          found = scalarFrame(found)
+
+        case _ if depth == 1 && inScalar && !Character.isWhitespace(c) =>
+          scalar.append(c)
+
+        case _ =>
+      }
+
+      if (capturing && builder.length + i - start >= maxFrame)
+        throw new IllegalStateException(s"Posted event larger than $maxFrame bytes")
+
+      i += 1
+    }
+
+    if (capturing) builder.append(chunk.slice(start, chunk.length))
+
+    found.reverse
+  }
+
+  private def scalarFrame(found: List[Frame]): List[Frame] = {
+    val value = scalar.toString
+    inScalar = false
+    scalar.clear()
+    if (field == cursor && value.nonEmpty && value != "null") CursorFrame(value.toLong) :: found
+    else found
+  }
+
+  private def eventFrame(json: ByteString): List[Frame] = field match {
+    case `arbitratorEvents` => List(ArbitratorEventFrame(json))
+    case `tradeEvents` => List(TradeEventFrame(json))
+    case _ => List()
+  }
+}
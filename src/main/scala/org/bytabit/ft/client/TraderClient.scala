@@ -20,10 +20,12 @@ import java.net.URL
 import akka.actor.{ActorRef, Props}
 import org.bytabit.ft.arbitrator.ArbitratorManager
 import org.bytabit.ft.client.EventClient._
+import org.bytabit.ft.server.PostedEventsFilter
 import org.bytabit.ft.trade.BtcBuyProcess.AddBtcBuyOffer
 import org.bytabit.ft.trade.TradeProcess.BtcBuyerCreatedOffer
 import org.bytabit.ft.trade.model.{BTCBUYER, BTCSELLER}
 import org.bytabit.ft.trade.{BtcBuyProcess, BtcSellProcess, TradeProcess}
+import org.bytabit.ft.util.Config
 import org.bytabit.ft.wallet.WalletManager.InsufficientBtc
 
 import scala.concurrent.duration._
@@ -33,7 +35,7 @@ object TraderClient {
 
   def props(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: ActorRef) = Props(new TraderClient(url, tradeWalletMgr, escrowWalletMgr))
 
-  def name(url: URL) = s"${TraderClient.getClass.getSimpleName}-${url.getHost}-${url.getPort}"
+  def name(url: URL) = s"${TraderClient.getClass.getSimpleName}-${url.getHost}-${url.getPort}${url.getPath.stripSuffix("/").replace('/', '-')}"
 }
 
 case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: ActorRef) extends EventClient {
@@ -42,12 +44,23 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
 
   override def persistenceId = TraderClient.name(url)
 
+  // only download trades in the configured currencies and payment methods
+
+  override val eventsFilter = PostedEventsFilter(currencyUnits = Config.eventsCurrencyUnits.toSet,
+    paymentMethods = Config.eventsPaymentMethods.toSet)
+
   startWith(ADDED, AddedServer(url))
 
   when(ADDED, stateTimeout = 30 second) {
 
-    case Event(Start | StateTimeout, d) =>
-      reqPostedEvents(url, None)
+    case Event(Start, d) =>
+      reqState(url)
+      stay()
+
+    // retry unless the state is still being read
+
+    case Event(StateTimeout, d) =>
+      if (!paging.get) reqState(url)
       stay()
 
     // arbitrator was created and posted
@@ -73,7 +86,7 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
 
     // startup
 
-    case Event(Start, ActiveServer(lp, a, at)) =>
+    case Event(Start, ActiveServer(lp, a, at, lc)) =>
 
       // create and start arbitrator
       createArbitratorManager(a) ! ArbitratorManager.Start
@@ -83,29 +96,56 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
       at.get(BTCSELLER).foreach(_.foreach(t => createBtcSellTrade(t._1, t._2) ! BtcSellProcess.Start))
 
       // request new events from event server
-      reqPostedEvents(url, Some(lp))
+      reqPostedEvents(url, Some(lp), lc)
 
       context.parent ! ServerOnline(a.url)
       stay()
 
-    case Event(StateTimeout, ActiveServer(lp, a, at)) =>
-      reqPostedEvents(url, Some(lp))
+    // poll for new events unless they are being streamed or pages of them are being read
+
+    case Event(StateTimeout, ActiveServer(lp, a, at, lc)) =>
+      if (!streaming.get && !paging.get) reqPostedEvents(url, Some(lp), lc)
       stay()
 
     case Event(son: ServerOnline, d) =>
       stay()
 
-    case Event(npe: NoPostedEventsReceived, d) =>
+    // caught up, stream new events
+
+    case Event(npe: NoPostedEventsReceived, ActiveServer(lp, a, at, lc)) =>
+      startStreamingEvents(url, lc)
       stay()
 
-    case Event(soff: ServerOffline, ActiveServer(lp, a, at)) =>
+    // update cursor and request next page if there may be more events, otherwise stream new events
+
+    case Event(ReceivePostedEventsCursor(c, more), ActiveServer(lp, a, at, lc)) =>
+      stay() applying PostedEventsCursorReceived(a.url, c) andThen { ud =>
+        if (more) reqPostedEvents(url, Some(lp), Some(c))
+        else startStreamingEvents(url, Some(c))
+      }
+
+    // update cursor and acknowledge streamed events
+
+    case Event(ReceiveStreamedEventsCursor(c), ActiveServer(lp, a, at, lc)) =>
+      stay() applying PostedEventsCursorReceived(a.url, c) replying c
+
+    case Event(soff: ServerOffline, ActiveServer(lp, a, at, lc)) =>
       goto(OFFLINE) andThen { ud =>
         context.parent ! soff
       }
 
-    // send received posted arbitrator events to ArbitratorManager
+    // send received posted arbitrator events to ArbitratorManager, contracts are kept so offers that
+    // refer to them by id can be read after a restart
+
+    case Event(ReceivePostedArbitratorEvent(ca: ArbitratorManager.ContractAdded), ActiveServer(lp, a, at, lc)) =>
+      stay() applying ContractReceived(a.url, ca.contract) andThen { ud =>
+        arbitratorManager(a) match {
+          case Some(ref) => ref ! ca
+          case None => log.error(s"Could not send event to arbitrator ${a.url}")
+        }
+      }
 
-    case Event(ReceivePostedArbitratorEvent(ae), ActiveServer(lp, a, at)) =>
+    case Event(ReceivePostedArbitratorEvent(ae), ActiveServer(lp, a, at, lc)) =>
       arbitratorManager(a) match {
         case Some(ref) => ref ! ae
         case None => log.error(s"Could not send event to arbitrator ${a.url}")
@@ -114,7 +154,7 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
 
     // update latest posted time and send posted arbitrator events to parent
 
-    case Event(ae: ArbitratorManager.PostedEvent, ActiveServer(lp, a, at)) =>
+    case Event(ae: ArbitratorManager.PostedEvent, ActiveServer(lp, a, at, lc)) =>
       stay() applying PostedEventReceived(a.url, ae.posted) andThen { ud =>
         context.parent ! ae
       }
@@ -145,7 +185,7 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
     // handle posted trade events
 
     // send event to existing local btc buyer trade or create remote btc buyer trade
-    case Event(ReceivePostedTradeEvent(sco: BtcBuyerCreatedOffer), ActiveServer(lp, a, at)) =>
+    case Event(ReceivePostedTradeEvent(sco: BtcBuyerCreatedOffer), ActiveServer(lp, a, at, lc)) =>
       tradeProcess(sco.id) match {
         case Some(ref) =>
           ref ! sco
@@ -155,19 +195,19 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
       stay()
 
     // add local btc buyer created trade and update latestUpdate
-    case Event(sco: TradeProcess.LocalBtcBuyerCreatedOffer, ActiveServer(lp, a, at)) =>
+    case Event(sco: TradeProcess.LocalBtcBuyerCreatedOffer, ActiveServer(lp, a, at, lc)) =>
       stay() applying TradeAdded(a.url, BTCBUYER, sco.id, sco.offer, sco.posted) andThen { ud =>
         context.parent ! sco
       }
 
     // add remote btc buyer created trade and update latestUpdate
-    case Event(sco: TradeProcess.BtcBuyerCreatedOffer, ActiveServer(lp, a, at)) =>
+    case Event(sco: TradeProcess.BtcBuyerCreatedOffer, ActiveServer(lp, a, at, lc)) =>
       stay() applying TradeAdded(a.url, BTCSELLER, sco.id, sco.offer, sco.posted) andThen { ud =>
         context.parent ! sco
       }
 
     // remove trade and update latestUpdate
-    case Event(sco: TradeProcess.BtcBuyerCanceledOffer, ActiveServer(lp, a, at)) =>
+    case Event(sco: TradeProcess.BtcBuyerCanceledOffer, ActiveServer(lp, a, at, lc)) =>
       stay() applying TradeRemoved(a.url, sco.id, sco.posted) andThen { ud =>
         context.parent ! sco
         stopTrade(sco.id)
@@ -175,7 +215,7 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
 
     // send received posted trade events to trades
 
-    case Event(ReceivePostedTradeEvent(te), ActiveServer(lp, a, at)) =>
+    case Event(ReceivePostedTradeEvent(te), ActiveServer(lp, a, at, lc)) =>
       tradeProcess(te.id) match {
         case Some(ref) => ref ! te
         case None => log.error(s"Could not send event to trade ${te.id}")
@@ -184,41 +224,41 @@ case class TraderClient(url: URL, tradeWalletMgr: ActorRef, escrowWalletMgr: Act
 
     // update latest posted time and send posted trade events to parent
 
-    case Event(te: TradeProcess.PostedEvent, ActiveServer(lp, a, at)) =>
+    case Event(te: TradeProcess.PostedEvent, ActiveServer(lp, a, at, lc)) =>
       stay() applying PostedEventReceived(a.url, te.posted) andThen { ud =>
         context.parent ! te
       }
 
     // send other non-posted events to parent
-    case Event(te: TradeProcess.Event, ActiveServer(lp, a, at)) =>
+    case Event(te: TradeProcess.Event, ActiveServer(lp, a, at, lc)) =>
       context.parent ! te
       stay()
 
     // send error events to parent
-    case Event(we: InsufficientBtc, ActiveServer(lp, a, at)) =>
+    case Event(we: InsufficientBtc, ActiveServer(lp, a, at, lc)) =>
       context.parent ! we
       stay()
   }
 
   when(OFFLINE, stateTimeout = 30 second) {
 
-    case Event(Start, ActiveServer(lp, a, at)) =>
+    case Event(Start, ActiveServer(lp, a, at, lc)) =>
 
 //      // start active trades
 //      at.get(BTCBUYER).foreach(_.foreach(t => createBtcBuyTrade(t._1, t._2.offer) ! BtcBuyProcess.Start))
 //      at.get(BTCSELLER).foreach(_.foreach(t => createBtcSellTrade(t._1, t._2) ! BtcSellProcess.Start))
 
       // request new events from event server
-      reqPostedEvents(url, Some(lp))
+      reqPostedEvents(url, Some(lp), lc)
 
       context.parent ! ServerOffline(a.url)
       stay()
 
-    case Event(StateTimeout, ActiveServer(lp, a, at)) =>
-      reqPostedEvents(a.url, Some(lp))
+    case Event(StateTimeout, ActiveServer(lp, a, at, lc)) =>
+      reqPostedEvents(a.url, Some(lp), lc)
       stay()
 
-    case Event(ServerOnline(_), ActiveServer(lp, a, at)) =>
+    case Event(ServerOnline(_), ActiveServer(lp, a, at, lc)) =>
       goto(ONLINE) andThen { ud =>
 
         // create and start active trades
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import akka.actor.ExtendedActorSystem
+import org.bytabit.ft.arbitrator.{ArbitratorJsonProtocol, ArbitratorManager}
+import org.bytabit.ft.client.{ClientManager, ClientManagerJsonProtocol, EventClient, EventClientJsonProtocol}
+import org.bytabit.ft.server.{EventServer, EventServerJsonProtocol}
+import org.bytabit.ft.trade.{TradeJsonProtocol, TradeProcess}
+import org.bytabit.ft.util.SprayJsonSerializer
+
+// journal events and snapshots of all persistent actors, except persistent fsm state changes which
+// are only visible to akka.persistence and stay with the StateChangeJsonSerializer
+
+class JournalJsonSerializer(system: ExtendedActorSystem) extends SprayJsonSerializer(system) {
+
+  val server = new EventServerJsonProtocol {}
+  val client = new EventClientJsonProtocol {}
+  val clientManager = new ClientManagerJsonProtocol {}
+  val trade = new TradeJsonProtocol {}
+  val arbitrator = new ArbitratorJsonProtocol {}
+
+  override def formats = Seq(
+    classOf[EventServer.Event] -> server.arbitratorServerManagerEventJsonFormat,
+    classOf[EventServer.Data] -> server.eventServerDataJsonFormat,
+    classOf[EventClient.Event] -> client.eventClientJsonFormat,
+    classOf[ClientManager.Event] -> clientManager.clientManagerEventJsonFormat,
+    classOf[TradeProcess.Event] -> trade.tradeEventJsonFormat,
+    classOf[ArbitratorManager.Event] -> arbitrator.arbitratorEventJsonFormat
+  )
+}
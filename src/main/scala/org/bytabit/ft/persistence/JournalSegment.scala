@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import java.io.{File, RandomAccessFile}
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import java.nio.channels.FileChannel.MapMode
+import java.util.zip.CRC32
+
+import scala.collection.mutable.ArrayBuffer
+import scala.util.Try
+
+object JournalSegment {
+
+  // entry length, sequence number and crc32 of the entry
+  val HeaderSize = 16
+
+  def fileName(firstSequenceNr: Long) = f"$firstSequenceNr%020d.seg"
+
+  def isSegment(file: File) = file.getName.endsWith(".seg")
+
+  def firstSequenceNr(file: File) = file.getName.stripSuffix(".seg").toLong
+
+  // a mapped file stays mapped until its buffer is garbage collected unless it's cleaned, with
+  // Unsafe.invokeCleaner after java 8 and the buffer's cleaner before, otherwise it's left to the gc
+
+  val unmap: MappedByteBuffer => Unit = Try {
+    val unsafe = Class.forName("sun.misc.Unsafe")
+    val invokeCleaner = unsafe.getMethod("invokeCleaner", classOf[ByteBuffer])
+    val theUnsafe = unsafe.getDeclaredField("theUnsafe")
+    theUnsafe.setAccessible(true)
+    val u = theUnsafe.get(null)
+    (b: MappedByteBuffer) => invokeCleaner.invoke(u, b): Unit
+  }.orElse(Try {
+    val cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner")
+    val clean = Class.forName("sun.misc.Cleaner").getMethod("clean")
+    (b: MappedByteBuffer) => Option(cleaner.invoke(b)).foreach(clean.invoke(_)): Unit
+  }).getOrElse((b: MappedByteBuffer) => ())
+
+  def crc(bytes: Array[Byte]): Int = {
+    val c = new CRC32()
+    c.update(bytes)
+    c.getValue.toInt
+  }
+}
+
+// an append only file of serialized journal entries mapped into memory, a zero length marks the end
+// of the entries written, a torn entry at the end found when opened is cleared and written over
+//
+// a new segment maps initialSize bytes and is mapped again twice as large as it fills, up to size
+//
+// the offset of every index interval'th entry is kept in a sparse index so replays start reading
+// near the first wanted entry
+
+class JournalSegment(val file: File, val firstSequenceNr: Long, size: Int, initialSize: Int, indexInterval: Int) {
+
+  import JournalSegment._
+
+  private var buffer: MappedByteBuffer = map(Math.max(Math.min(initialSize, size).toLong, file.length))
+
+  private val maxCapacity = Math.max(size, buffer.capacity)
+
+  private val indexSequenceNrs = ArrayBuffer[Long]()
+  private val indexOffsets = ArrayBuffer[Int]()
+
+  private var entries = 0
+  private var position = 0
+  private var dirty = false
+
+  var lastSequenceNr = firstSequenceNr - 1
+
+  recover()
+
+  def hasRoom(length: Int): Boolean = position + HeaderSize + length <= maxCapacity
+
+  def append(sequenceNr: Long, bytes: Array[Byte]): Unit = {
+    if (!hasRoom(bytes.length)) throw new IllegalStateException(s"Journal segment full: $file")
+    val needed = position + HeaderSize + bytes.length
+    if (needed > buffer.capacity) grow(Math.min(maxCapacity, Math.max(needed, buffer.capacity * 2)))
+    if (entries % indexInterval == 0) {
+      indexSequenceNrs += sequenceNr
+      indexOffsets += position
+    }
+    buffer.putLong(position + 4, sequenceNr)
+    buffer.putInt(position + 12, crc(bytes))
+    buffer.position(position + HeaderSize)
+    buffer.put(bytes)
+    // length is written last so a torn entry reads as the end or fails its crc
+    buffer.putInt(position, bytes.length)
+    position += HeaderSize + bytes.length
+    lastSequenceNr = sequenceNr
+    entries += 1
+    dirty = true
+  }
+
+  // entries with sequence numbers from and to, until f returns false
+
+  def read(from: Long, to: Long)(f: (Long, Array[Byte]) => Boolean): Boolean = {
+    val i = java.util.Arrays.binarySearch(indexSequenceNrs.toArray, from)
+    var offset = if (i >= 0) indexOffsets(i) else if (i == -1) 0 else indexOffsets(-i - 2)
+    var more = true
+    while (more && offset < position) {
+      val length = buffer.getInt(offset)
+      val sequenceNr = buffer.getLong(offset + 4)
+      if (sequenceNr > to) {
+        more = false
+      } else {
+        if (sequenceNr >= from) {
+          val bytes = new Array[Byte](length)
+          val b = buffer.duplicate()
+          b.position(offset + HeaderSize)
+          b.get(bytes)
+          more = f(sequenceNr, bytes)
+        }
+        offset += HeaderSize + length
+      }
+    }
+    more
+  }
+
+  def force(): Unit = if (dirty) {
+    buffer.force()
+    dirty = false
+  }
+
+  // forces and unmaps the file, the segment can't be used after it's closed
+
+  def close(): Unit = if (buffer != null) {
+    force()
+    unmap(buffer)
+    buffer = null
+  }
+
+  private def map(length: Long): MappedByteBuffer = {
+    val raf = new RandomAccessFile(file, "rw")
+    try raf.getChannel.map(MapMode.READ_WRITE, 0, length)
+    finally raf.close()
+  }
+
+  private def grow(capacity: Int): Unit = {
+    force()
+    val grown = map(capacity)
+    unmap(buffer)
+    buffer = grown
+  }
+
+  private def recover(): Unit = {
+    var valid = true
+    while (valid && position + HeaderSize <= buffer.capacity) {
+      val length = buffer.getInt(position)
+      if (length <= 0 || position + HeaderSize + length > buffer.capacity) {
+        valid = false
+      } else {
+        val sequenceNr = buffer.getLong(position + 4)
+        val bytes = new Array[Byte](length)
+        buffer.position(position + HeaderSize)
+        buffer.get(bytes)
+        if (buffer.getInt(position + 12) != crc(bytes) || sequenceNr <= lastSequenceNr) {
+          valid = false
+        } else {
+          if (entries % indexInterval == 0) {
+            indexSequenceNrs += sequenceNr
+            indexOffsets += position
+          }
+          position += HeaderSize + length
+          lastSequenceNr = sequenceNr
+          entries += 1
+        }
+      }
+    }
+    // clear a torn entry
+    if (position + 4 <= buffer.capacity && buffer.getInt(position) != 0) {
+      var i = position
+      while (i < buffer.capacity) {
+        buffer.put(i, 0)
+        i += 1
+      }
+      dirty = true
+      force()
+    }
+  }
+}
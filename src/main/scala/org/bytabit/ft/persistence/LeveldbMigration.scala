@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.charset.Charset
+
+import org.bytabit.ft.persistence.SegmentedLog.{Confirmed, Deleted, Marker, Marks}
+import org.bytabit.ft.util.Config
+import org.iq80.leveldb.{DBFactory, Options}
+
+import scala.collection.mutable
+
+// copies the leveldb journal to the segmented journal, run with the app stopped then select the
+// segmented journal plugin, the leveldb journal directory isn't changed
+//
+// gradle migrateJournal -Dconfig.file=./src/test/resources/server1-regtest.conf
+//
+// serialized messages are copied as they are, ids and sequence numbers are read from the akka 2.3
+// leveldb keys: int persistence id, long sequence number, int channel id, mapped persistence and
+// channel ids have key persistence id 1, messages channel id 0, deleted markers channel id 1 and
+// confirmations the mapped id of their channel
+
+object LeveldbMigration {
+
+  val UTF8: Charset = Charset.forName("UTF-8")
+
+  val idMappingKey = 1
+  val idOffset = 10
+  val messageChannel = 0
+  val deletedChannel = 1
+
+  final case class Key(persistenceId: Int, sequenceNr: Long, channelId: Int)
+
+  def key(bytes: Array[Byte]): Option[Key] =
+    if (bytes.length >= 16) {
+      val bb = ByteBuffer.wrap(bytes)
+      Some(Key(bb.getInt, bb.getLong, bb.getInt))
+    } else None
+
+  // copied persistence ids and their highest sequence number
+
+  def migrate(from: File, to: File, native: Boolean): Map[String, Long] = {
+
+    if (Option(to.list).exists(_.nonEmpty))
+      throw new IllegalStateException(s"Segmented journal directory not empty: $to")
+
+    val journal = Config.appConfig.getConfig(SegmentedJournal.configPath)
+    val segmentSize = journal.getBytes("segment-size").toInt
+    val initialSegmentSize = journal.getBytes("segment-initial-size").toInt
+    val indexInterval = journal.getInt("index-interval")
+
+    val factory: DBFactory =
+      if (native) org.fusesource.leveldbjni.JniDBFactory.factory
+      else org.iq80.leveldb.impl.Iq80DBFactory.factory
+
+    val db = factory.open(from, new Options().createIfMissing(false))
+
+    val ids = mutable.Map[Int, String]()
+    val logs = mutable.Map[Int, SegmentedLog]()
+    val counters = mutable.Map[Int, Long]()
+    val firstCopied = mutable.Map[Int, Long]()
+
+    def log(id: Int): SegmentedLog = logs.getOrElseUpdate(id,
+      new SegmentedLog(SegmentedLog.dir(to, ids(id)), segmentSize, indexInterval, initialSegmentSize))
+
+    // a message is copied once the next message's key is read, the keys in between are its deleted
+    // marker and confirmations
+
+    var pending: Option[(Key, Array[Byte])] = None
+    var markers = Vector[Marker]()
+
+    def copy(): Unit = pending.foreach { case (k, bytes) =>
+      if (ids.contains(k.persistenceId)) {
+        val l = log(k.persistenceId)
+        l.append(k.sequenceNr, bytes)
+        if (markers.nonEmpty) l.mark(markers)
+        firstCopied.getOrElseUpdate(k.persistenceId, k.sequenceNr)
+      } else {
+        println(s"No persistence id for ${k.persistenceId}, message ${k.sequenceNr} not copied")
+      }
+      pending = None
+      markers = Vector()
+    }
+
+    def marks(k: Key): Boolean = pending.exists(p => p._1.persistenceId == k.persistenceId && p._1.sequenceNr == k.sequenceNr)
+
+    val it = db.iterator()
+    try {
+      it.seekToFirst()
+      while (it.hasNext) {
+        val entry = it.next()
+        key(entry.getKey).foreach {
+          case Key(`idMappingKey`, 0L, id) =>
+            ids.put(id, new String(entry.getValue, UTF8))
+          case Key(pid, 0L, `messageChannel`) if pid >= idOffset =>
+            copy()
+            counters.put(pid, ByteBuffer.wrap(entry.getValue).getLong)
+          case k@Key(pid, _, `messageChannel`) if pid >= idOffset =>
+            copy()
+            pending = Some((k, entry.getValue))
+          case k@Key(pid, n, `deletedChannel`) if pid >= idOffset && marks(k) =>
+            markers :+= Deleted(n, permanent = false)
+          case k@Key(pid, n, channel) if pid >= idOffset && channel >= idOffset && marks(k) =>
+            ids.get(channel).foreach(c => markers :+= Confirmed(n, c))
+          case _ =>
+        }
+      }
+      copy()
+    } finally {
+      it.close()
+      db.close()
+    }
+
+    // entries before the first copied were removed, the highest sequence number is kept so it isn't
+    // reused, channel ids are mapped too but have no counter or messages
+
+    val copied = (counters.keySet ++ logs.keySet).toSeq.filter(ids.contains).map { id =>
+      val l = log(id)
+      val highest = counters.getOrElse(id, 0L)
+      l.setMarks(Marks(removedTo = firstCopied.get(id).map(_ - 1).getOrElse(highest), highest = highest))
+      l.close()
+      ids(id) -> highest
+    }
+    copied.toMap
+  }
+
+  def main(args: Array[String]): Unit = {
+
+    val opts = args.map(_.split("=", 2)).collect { case Array(k, v) => k -> v }.toMap
+    val from = opts.get("from").map(new File(_)).getOrElse(Config.journalDir)
+    val to = opts.get("to").map(new File(_)).getOrElse(Config.segmentedJournalDir)
+    val native = Config.getBoolean("akka.persistence.journal.leveldb.native", default = true)
+
+    val copied = migrate(from, to, native)
+    copied.toSeq.sorted.foreach { case (pid, highest) => println(s"Copied $pid, highest sequence number $highest") }
+    println(s"Copied ${copied.size} persistence ids from $from to $to")
+  }
+}
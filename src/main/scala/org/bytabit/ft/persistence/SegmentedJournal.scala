@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+import akka.actor.Cancellable
+import akka.persistence.journal.SyncWriteJournal
+import akka.persistence.{PersistentConfirmation, PersistentId, PersistentRepr}
+import akka.serialization.SerializationExtension
+import org.bytabit.ft.persistence.SegmentedLog.{Confirmed, Deleted}
+
+import scala.collection.JavaConversions._
+import scala.collection.immutable
+import scala.concurrent.Future
+import scala.concurrent.duration._
+
+object SegmentedJournal {
+
+  val configPath = "akka.persistence.journal.segmented"
+}
+
+// journal plugin writing each persistence id's entries to append only, memory mapped segment files,
+// an alternative to leveldb without its compactions, select it with
+//
+// akka.persistence.journal.plugin = "akka.persistence.journal.segmented"
+//
+// written segments are forced to disk once per batch of writes, or at most every fsync-interval if set
+// which risks losing the entries written since the last one if the host fails
+//
+// each persistence id has one log for good, so writes and replays from the replay dispatcher always use
+// the same log, at most max-open-logs of them have mapped segments, the least recently used log is
+// closed when another is used and maps its segments again when next used
+
+class SegmentedJournal extends SyncWriteJournal {
+
+  import SegmentedJournal._
+
+  val config = context.system.settings.config.getConfig(configPath)
+
+  val dir = new File(config.getString("dir"))
+  val segmentSize = config.getBytes("segment-size").toInt
+  val initialSegmentSize = config.getBytes("segment-initial-size").toInt
+  val indexInterval = config.getInt("index-interval")
+  val maxOpenLogs = config.getInt("max-open-logs")
+  val fsyncInterval = FiniteDuration(config.getDuration("fsync-interval", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+
+  val serialization = SerializationExtension(context.system)
+
+  implicit val replayDispatcher = context.system.dispatchers.lookup(config.getString("replay-dispatcher"))
+
+  // logs by persistence id, and the ids of logs that may have mapped segments in least recently used
+  // order, closing a log takes its lock so it doesn't unmap a segment being appended to or replayed
+
+  private val logs = new java.util.HashMap[String, SegmentedLog]()
+
+  private val used = new java.util.LinkedHashMap[String, SegmentedLog](16, 0.75f, true)
+
+  private var forcing: Option[Cancellable] = None
+
+  def log(persistenceId: String): SegmentedLog = logs.synchronized {
+    val l = Option(logs.get(persistenceId)).getOrElse {
+      val created = new SegmentedLog(SegmentedLog.dir(dir, persistenceId), segmentSize, indexInterval, initialSegmentSize)
+      logs.put(persistenceId, created)
+      created
+    }
+    used.put(persistenceId, l)
+    if (used.size > maxOpenLogs) {
+      val eldest = used.entrySet.iterator.next
+      used.remove(eldest.getKey)
+      eldest.getValue.close()
+    }
+    l
+  }
+
+  override def preStart(): Unit = {
+    dir.mkdirs()
+    if (fsyncInterval > Duration.Zero) {
+      forcing = Some(context.system.scheduler.schedule(fsyncInterval, fsyncInterval)(force())(context.dispatcher))
+    }
+    super.preStart()
+  }
+
+  override def postStop(): Unit = {
+    forcing.foreach(_.cancel())
+    logs.synchronized {
+      logs.values.foreach(_.close())
+      logs.clear()
+      used.clear()
+    }
+    super.postStop()
+  }
+
+  // all logs, a log closed while it was used maps its segment again without being used again
+
+  def force(): Unit = logs.synchronized(logs.values.toVector).foreach(_.force())
+
+  def writeMessages(messages: immutable.Seq[PersistentRepr]): Unit = {
+    val written = messages.map { p =>
+      val l = log(p.persistenceId)
+      l.append(p.sequenceNr, serialization.serialize(p).get)
+      l
+    }
+    if (forcing.isEmpty) written.distinct.foreach(_.force())
+  }
+
+  def deleteMessagesTo(persistenceId: String, toSequenceNr: Long, permanent: Boolean): Unit =
+    log(persistenceId).deleteTo(toSequenceNr, permanent)
+
+  // channel confirmations and single deleted messages are kept as markers and applied when replayed
+
+  def writeConfirmations(confirmations: immutable.Seq[PersistentConfirmation]): Unit =
+    confirmations.groupBy(_.persistenceId).foreach { case (pid, cs) =>
+      log(pid).mark(cs.map(c => Confirmed(c.sequenceNr, c.channelId)))
+    }
+
+  def deleteMessages(messageIds: immutable.Seq[PersistentId], permanent: Boolean): Unit =
+    messageIds.groupBy(_.persistenceId).foreach { case (pid, ids) =>
+      log(pid).mark(ids.map(i => Deleted(i.sequenceNr, permanent)))
+    }
+
+  def asyncReplayMessages(persistenceId: String, fromSequenceNr: Long, toSequenceNr: Long, max: Long)
+                         (replayCallback: (PersistentRepr) => Unit): Future[Unit] = Future {
+    log(persistenceId).replay(fromSequenceNr, toSequenceNr, max) { (sequenceNr, bytes, deleted, confirms) =>
+      val p = serialization.deserialize(bytes, classOf[PersistentRepr]).get
+      replayCallback(if (deleted || confirms.nonEmpty) p.update(deleted = deleted, confirms = confirms.toList) else p)
+    }
+  }
+
+  def asyncReadHighestSequenceNr(persistenceId: String, fromSequenceNr: Long): Future[Long] = Future {
+    log(persistenceId).highestSequenceNr
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import java.io._
+import java.net.URLEncoder
+import java.nio.file.{Files, StandardCopyOption}
+
+object SegmentedLog {
+
+  // deleted marks, sequence numbers up to deletedTo are replayed as deleted and up to removedTo aren't
+  // replayed, highest is kept so sequence numbers aren't reused after removing all entries
+
+  final case class Marks(deletedTo: Long = 0, removedTo: Long = 0, highest: Long = 0)
+
+  val marksFile = "deleted"
+
+  // confirmations and deletions of single entries, appended to the markers file
+
+  sealed trait Marker {
+    val sequenceNr: Long
+  }
+
+  final case class Confirmed(sequenceNr: Long, channelId: String) extends Marker
+
+  final case class Deleted(sequenceNr: Long, permanent: Boolean) extends Marker
+
+  val markersFile = "markers"
+
+  val DefaultInitialSegmentSize = 64 * 1024
+
+  def dir(journalDir: File, persistenceId: String) = new File(journalDir, URLEncoder.encode(persistenceId, "UTF-8"))
+}
+
+// journal entries of one persistence id in segments named by their first sequence number, a new
+// segment is started when the last one is full, removed entries are deleted with their segment
+//
+// only the last segment stays mapped, earlier segments are mapped while replayed, closing the log
+// unmaps its segments and they're mapped again when next used
+
+class SegmentedLog(val dir: File, segmentSize: Int, indexInterval: Int,
+                   initialSegmentSize: Int = SegmentedLog.DefaultInitialSegmentSize) {
+
+  import SegmentedLog._
+
+  dir.mkdirs()
+
+  // segment files and their opened segment, only segments read or written are opened
+
+  private var files: Vector[File] = Option(dir.listFiles).toVector.flatten
+    .filter(JournalSegment.isSegment).sortBy(JournalSegment.firstSequenceNr)
+
+  private var opened: Map[File, JournalSegment] = Map()
+
+  private var marks: Marks = readMarks()
+
+  private var markers: Vector[Marker] = Vector()
+
+  private var confirms: Map[Long, Vector[String]] = Map()
+
+  private var deleted: Set[Long] = Set()
+
+  private var removed: Set[Long] = Set()
+
+  readMarkers()
+
+  markers.foreach(applyMarker)
+
+  private def segment(file: File): JournalSegment = opened.getOrElse(file, {
+    val s = new JournalSegment(file, JournalSegment.firstSequenceNr(file), segmentSize, initialSegmentSize, indexInterval)
+    opened += file -> s
+    s
+  })
+
+  private def close(file: File): Unit = {
+    opened.get(file).foreach(_.close())
+    opened -= file
+  }
+
+  def highestSequenceNr: Long = synchronized {
+    Math.max(files.lastOption.map(segment(_).lastSequenceNr).getOrElse(0L), marks.highest)
+  }
+
+  def append(sequenceNr: Long, bytes: Array[Byte]): Unit = synchronized {
+    val s = files.lastOption.map(segment).filter(_.hasRoom(bytes.length)).getOrElse {
+      files.lastOption.foreach(close)
+      val file = new File(dir, JournalSegment.fileName(sequenceNr))
+      val s = new JournalSegment(file, sequenceNr, Math.max(segmentSize, JournalSegment.HeaderSize + bytes.length),
+        initialSegmentSize, indexInterval)
+      files :+= file
+      opened += file -> s
+      s
+    }
+    s.append(sequenceNr, bytes)
+  }
+
+  // entries from and to, at most max, with their confirmations, deleted entries are replayed as deleted,
+  // segments before the last are unmapped again after they're read
+
+  def replay(from: Long, to: Long, max: Long)(f: (Long, Array[Byte], Boolean, Seq[String]) => Unit): Unit = synchronized {
+    val start = Math.max(from, marks.removedTo + 1)
+    var replayed = 0L
+    val read = files.zip(files.drop(1).map(n => JournalSegment.firstSequenceNr(n) - 1) :+ Long.MaxValue)
+      .filter { case (file, last) => last >= start && JournalSegment.firstSequenceNr(file) <= to }
+      .map(_._1)
+    read.iterator.takeWhile(_ => replayed < max).foreach { file =>
+      segment(file).read(start, to) { (sequenceNr, bytes) =>
+        if (!removed.contains(sequenceNr)) {
+          f(sequenceNr, bytes, sequenceNr <= marks.deletedTo || deleted.contains(sequenceNr),
+            confirms.getOrElse(sequenceNr, Vector()))
+          replayed += 1
+        }
+        replayed < max
+      }
+      if (files.lastOption.exists(_ != file)) close(file)
+    }
+  }
+
+  def deleteTo(to: Long, permanent: Boolean): Unit = synchronized {
+    val highest = highestSequenceNr
+    marks = if (permanent) marks.copy(removedTo = Math.max(marks.removedTo, to), highest = highest)
+    else marks.copy(deletedTo = Math.max(marks.deletedTo, to), highest = highest)
+    writeMarks()
+
+    // segments before the last with all their entries removed, and markers of removed entries
+
+    if (permanent) {
+      val removedFiles = files.zip(files.drop(1)).collect {
+        case (file, next) if JournalSegment.firstSequenceNr(next) - 1 <= marks.removedTo => file
+      }
+      removedFiles.foreach { file =>
+        close(file)
+        file.delete()
+      }
+      files = files.filterNot(removedFiles.contains)
+
+      if (markers.exists(_.sequenceNr <= marks.removedTo)) {
+        markers = markers.filter(_.sequenceNr > marks.removedTo)
+        confirms = confirms.filterKeys(_ > marks.removedTo).map(identity)
+        deleted = deleted.filter(_ > marks.removedTo)
+        removed = removed.filter(_ > marks.removedTo)
+        rewriteMarkers()
+      }
+    }
+  }
+
+  // confirmations and deletions of single entries
+
+  def mark(ms: Seq[Marker]): Unit = synchronized {
+    ms.foreach(applyMarker)
+    markers ++= ms
+    writeMarkers(ms, append = true)
+  }
+
+  def force(): Unit = synchronized {
+    opened.values.foreach(_.force())
+  }
+
+  def close(): Unit = synchronized {
+    opened.values.foreach(_.close())
+    opened = Map()
+  }
+
+  // marks of entries copied from another journal
+
+  def setMarks(marks: Marks): Unit = synchronized {
+    this.marks = marks
+    writeMarks()
+  }
+
+  private def applyMarker(m: Marker): Unit = m match {
+    case Confirmed(n, c) => confirms += n -> (confirms.getOrElse(n, Vector()) :+ c)
+    case Deleted(n, false) => deleted += n
+    case Deleted(n, true) => removed += n
+  }
+
+  private def readMarks(): Marks = {
+    val file = new File(dir, marksFile)
+    if (file.exists) {
+      val in = new DataInputStream(new FileInputStream(file))
+      try Marks(in.readLong(), in.readLong(), in.readLong())
+      finally in.close()
+    } else Marks()
+  }
+
+  private def writeMarks(): Unit = {
+    val tmp = new File(dir, s"$marksFile.tmp")
+    val out = new FileOutputStream(tmp)
+    val data = new DataOutputStream(out)
+    try {
+      data.writeLong(marks.deletedTo)
+      data.writeLong(marks.removedTo)
+      data.writeLong(marks.highest)
+      data.flush()
+      out.getFD.sync()
+    } finally data.close()
+    Files.move(tmp.toPath, new File(dir, marksFile).toPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+  }
+
+  // each marker is a kind byte, the sequence number and the channel id of a confirmation, a torn
+  // marker at the end is dropped when the markers are read
+
+  private def readMarkers(): Unit = {
+    val file = new File(dir, markersFile)
+    if (file.exists) {
+      val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+      val read = Vector.newBuilder[Marker]
+      var torn = false
+      try {
+        var kind = in.read()
+        while (kind >= 0 && !torn) {
+          try {
+            read += (kind match {
+              case 0 => Confirmed(in.readLong(), in.readUTF())
+              case 1 => Deleted(in.readLong(), permanent = false)
+              case _ => Deleted(in.readLong(), permanent = true)
+            })
+            kind = in.read()
+          } catch {
+            case e: EOFException => torn = true
+          }
+        }
+      } finally in.close()
+      markers = read.result()
+      if (torn) rewriteMarkers()
+    }
+  }
+
+  private def writeMarkers(ms: Seq[Marker], append: Boolean): Unit = {
+    val file = new File(dir, if (append) markersFile else s"$markersFile.tmp")
+    val out = new FileOutputStream(file, append)
+    val data = new DataOutputStream(new BufferedOutputStream(out))
+    try {
+      ms.foreach {
+        case Confirmed(n, c) =>
+          data.writeByte(0)
+          data.writeLong(n)
+          data.writeUTF(c)
+        case Deleted(n, permanent) =>
+          data.writeByte(if (permanent) 2 else 1)
+          data.writeLong(n)
+      }
+      data.flush()
+      out.getFD.sync()
+    } finally data.close()
+  }
+
+  private def rewriteMarkers(): Unit = {
+    writeMarkers(markers, append = false)
+    Files.move(new File(dir, s"$markersFile.tmp").toPath, new File(dir, markersFile).toPath,
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.LinkedHashMap
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+
+import org.bytabit.ft.server.Admission._
+
+import scala.concurrent.duration._
+
+object Admission {
+
+  sealed trait Result
+
+  case object Admitted extends Result
+
+  // client is posting faster than its rate limit
+
+  final case class RateLimited(retryAfter: FiniteDuration) extends Result
+
+  // too many posts waiting for the event server
+
+  final case class Overloaded(retryAfter: FiniteDuration) extends Result
+
+  // tokens are added at rate per second up to burst, each post takes one
+
+  final class TokenBucket(rate: Double, burst: Int, var tokens: Double, @volatile var updated: Long) {
+
+    def take(now: Long): Either[FiniteDuration, Unit] = synchronized {
+      tokens = Math.min(burst, tokens + (now - updated) / 1e9 * rate)
+      updated = now
+      if (tokens >= 1) {
+        tokens -= 1
+        Right(())
+      } else Left(Math.ceil((1 - tokens) / rate).toLong.seconds)
+    }
+  }
+
+}
+
+// admission control for posted events, posts waiting for the event server are limited to maxInFlight
+// and each client to rate posts per second, rejected posts are told when to retry instead of timing out
+
+class Admission(maxInFlight: Int, rate: Double, burst: Int, retryAfter: FiniteDuration, maxClients: Int = 10000) {
+
+  // buckets in least recently used order, a bucket idle long enough to refill is the same as a new one so
+  // it's removed, and the least recently used are removed while there are more than maxClients
+
+  private val buckets = new LinkedHashMap[String, TokenBucket](16, 0.75f, true)
+
+  private val refillNanos = (burst / rate * 1e9).toLong
+
+  def bucket(client: String, now: Long): TokenBucket = buckets.synchronized {
+    val b = Option(buckets.get(client)).getOrElse {
+      val added = new TokenBucket(rate, burst, burst, now)
+      buckets.put(client, added)
+      added
+    }
+    val eldest = buckets.values.iterator
+    var evicting = true
+    while (evicting && eldest.hasNext) {
+      val e = eldest.next()
+      if ((e ne b) && (buckets.size > maxClients || now - e.updated >= refillNanos)) eldest.remove()
+      else evicting = false
+    }
+    b
+  }
+
+  def clients: Int = buckets.synchronized(buckets.size)
+
+  val inFlight = new AtomicInteger()
+
+  val admitted = new AtomicLong()
+
+  val rateLimited = new AtomicLong()
+
+  val overloaded = new AtomicLong()
+
+  def admit(client: String, now: Long = System.nanoTime()): Result = {
+    bucket(client, now).take(now) match {
+      case Left(wait) =>
+        rateLimited.incrementAndGet()
+        RateLimited(wait)
+      case Right(_) if inFlight.incrementAndGet() > maxInFlight =>
+        inFlight.decrementAndGet()
+        overloaded.incrementAndGet()
+        Overloaded(retryAfter)
+      case Right(_) =>
+        admitted.incrementAndGet()
+        Admitted
+    }
+  }
+
+  // called when an admitted post is answered
+
+  def done(): Unit = inFlight.decrementAndGet()
+
+  override def toString: String =
+    s"in flight ${inFlight.get}, admitted ${admitted.get}, rate limited ${rateLimited.get}, overloaded ${overloaded.get}"
+}
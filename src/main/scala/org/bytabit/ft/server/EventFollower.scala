@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.net.URL
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicReference
+
+import akka.actor.{Actor, ActorSystem, Props, Terminated}
+import akka.event.Logging
+import akka.http.scaladsl.Http
+import akka.http.scaladsl.model._
+import akka.http.scaladsl.unmarshalling.Unmarshal
+import akka.pattern.ask
+import akka.stream.ActorMaterializer
+import akka.stream.io.Framing
+import akka.stream.scaladsl.{Sink, Source}
+import akka.util.{ByteString, Timeout}
+import org.bitcoinj.core.Sha256Hash
+import org.bytabit.ft.arbitrator.ArbitratorManager
+import org.bytabit.ft.server.EventFollower._
+import org.bytabit.ft.server.EventServer._
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.Contract
+import org.bytabit.ft.util.{Config, HttpCoding}
+import org.joda.time.DateTime
+import spray.json._
+
+import scala.concurrent.Future
+import scala.concurrent.duration._
+import scala.language.postfixOps
+
+object EventFollower {
+
+  // actor setup
+
+  def props(leader: URL) = Props(new EventFollower(leader))
+
+  val name = EventFollower.getClass.getSimpleName
+
+  def actorOf(leader: URL)(implicit system: ActorSystem) =
+    system.actorOf(props(leader), name)
+
+  // commands
+
+  sealed trait Command
+
+  case object ReplicateEvents extends Command
+
+  final case class ReplicationStopped(received: Boolean) extends Command
+
+  final case class EventReplicated(evt: EventServer.Event, json: ByteString) extends Command
+
+}
+
+// read only replica of an event server, events are replicated from the leader's events stream which
+// gives each event with its sequence number, so cursors and entity tags are the same as the leader's,
+// posts are forwarded to the leader, data is kept in memory and replicated again after a restart
+
+class EventFollower(leader: URL) extends Actor with EventServerHttpProtocol with PostedEventsPublisher {
+
+  // implicits
+
+  override implicit val system = context.system
+
+  override implicit val materializer = ActorMaterializer()
+
+  implicit val dispatcher = system.dispatcher
+
+  implicit val timeout = Timeout(30 seconds)
+
+  val bindingFuture = binding(Config.localAddress, Config.localPort)
+
+  // logging
+
+  override val log = Logging(context.system, this)
+
+  // read model
+
+  private var data = Data()
+
+  private val readData = new AtomicReference[Data](data)
+
+  val heartbeat = system.scheduler.schedule(Config.serverEventsStreamHeartbeat, Config.serverEventsStreamHeartbeat,
+    self, SendHeartbeat)
+
+  // finished trades are removed the same way as on the leader, archived events are read from the leader
+
+  val compactTimer = system.scheduler.schedule(Config.serverCompactInterval, Config.serverCompactInterval,
+    self, CompactTrades)
+
+  override def preStart(): Unit = self ! ReplicateEvents
+
+  override def postStop(): Unit = {
+    heartbeat.cancel()
+    compactTimer.cancel()
+    super.postStop()
+  }
+
+  // http flow
+
+  // a leader hosting more than one arbitrator serves each under its path
+
+  val leaderPath = leader.getPath.stripSuffix("/")
+
+  def connectionFlow = Http().outgoingConnection(host = leader.getHost, port = leader.getPort)
+
+  def request(req: HttpRequest): Future[HttpResponse] =
+    Source.single(req.addHeader(HttpCoding.acceptEncoding)).via(connectionFlow).map(HttpCoding.decode).runWith(Sink.head)
+
+  // replicate the leader's events stream, the leader ends the stream if the follower is too far behind
+  // and it reconnects from its cursor, the next event isn't read until the previous one is applied, so
+  // an offer that refers to its contract by id is read after the contract was added
+
+  def replicate(after: Option[Long]): Unit = {
+
+    val streamUri = s"$leaderPath/events/stream${after.map(a => s"?after=$a").getOrElse("")}"
+
+    request(HttpRequest(uri = streamUri, method = HttpMethods.GET)).onComplete {
+
+      case scala.util.Success(HttpResponse(StatusCodes.OK, headers, entity, protocol)) =>
+        log.debug(s"Replicating events from $leader$streamUri")
+        entity.dataBytes
+          .via(Framing.delimiter(newline, Config.eventsStreamMaxFrame, allowTruncation = true))
+          .filter(_.nonEmpty)
+          .mapAsync(1)(line => Future.sequence(replicated(line.utf8String.parseJson.asJsObject).map(self ? _)))
+          .runFold(false)((r, es) => r || es.nonEmpty).onComplete { r =>
+          log.debug(s"Stopped replicating events from $leader: $r")
+          self ! ReplicationStopped(r.getOrElse(false))
+        }
+
+      case scala.util.Success(HttpResponse(sc, headers, entity, protocol)) =>
+        log.error(s"Response from $leader$streamUri ${sc.toString()}")
+        entity.dataBytes.runWith(Sink.ignore)
+        self ! ReplicationStopped(received = false)
+
+      case scala.util.Failure(failure) =>
+        log.debug(s"No Response from $leader: $failure")
+        self ! ReplicationStopped(received = false)
+    }
+  }
+
+  // each streamed PostedEvents has one event and its sequence number as the cursor, the event json is
+  // kept as sent by the leader
+
+  def replicated(pe: JsObject): Seq[EventReplicated] = pe.fields.get("cursor") match {
+    case Some(JsNumber(seq)) =>
+      val aes = pe.fields.get("arbitratorEvents").toSeq.flatMap(_.convertTo[Seq[JsValue]])
+        .map(ae => EventReplicated(ArbitratorEventPosted(ae.convertTo[ArbitratorManager.PostedEvent], Some(seq.toLong)),
+          ByteString(ae.compactPrint)))
+      val tes = pe.fields.get("tradeEvents").toSeq.flatMap(_.convertTo[Seq[JsValue]])
+        .map(te => EventReplicated(TradeEventPosted(te.convertTo[TradeProcess.PostedEvent], Some(seq.toLong)),
+          ByteString(te.compactPrint)))
+      aes ++ tes
+    case _ =>
+      Seq()
+  }
+
+  override def knownContract(id: Sha256Hash): Option[Contract] = readData.get.contractAdded(id)
+
+  // http server handlers
+
+  override def getPostedEvents(since: Option[DateTime]) = readData.get.postedEvents(since)
+
+  override def getPostedEventsAfter(after: Option[Long], limit: Int, filter: PostedEventsFilter) =
+    readData.get.postedEventsMatching(after, limit, filter)
+
+  override def postedEventsVersion: Long = readData.get.lastSeq
+
+  override def getState(filter: PostedEventsFilter) = readData.get.state(filter)
+
+  override def getStats = {
+    val d = readData.get
+    (d.lastSeq, d.marketStats.summary)
+  }
+
+  override val metrics = new ServerMetrics(leaderPath.stripPrefix("/"))
+
+  override def metricsText: String =
+    metrics.text(Seq(("ft_posts_in_flight", "", metrics.inFlight.get.toDouble)) ++ ServerMetrics.dataGauges(readData.get))
+
+  override def getArchivedTradeEvents(id: UUID): Future[Option[Seq[ByteString]]] =
+    request(HttpRequest(uri = s"$leaderPath/events/archive/$id", method = HttpMethods.GET)).flatMap {
+      case HttpResponse(StatusCodes.OK, headers, entity, protocol) =>
+        Unmarshal(entity).to[String].map { s =>
+          Some(s.parseJson.asJsObject.fields.get("tradeEvents").toSeq.flatMap(_.convertTo[Seq[JsValue]])
+            .map(te => ByteString(te.compactPrint)))
+        }
+      case HttpResponse(sc, headers, entity, protocol) =>
+        entity.dataBytes.runWith(Sink.ignore)
+        Future.successful(None)
+    }
+
+  // posts are forwarded to the leader with the client's address so the leader admits them for the client if
+  // this follower is in its trusted-followers, they are replicated back once the leader has persisted them, and a post the leader rejects is rejected
+  // with the leader's status and Retry-After
+
+  // posts forwarded and not yet answered by the leader are counted as in flight
+
+  def postToLeader[E: JsonFormat](uri: String, evt: E, client: RemoteAddress, nonce: Option[String] = None): Future[E] = {
+    metrics.inFlight.incrementAndGet()
+    request(HttpRequest(uri = s"$leaderPath$uri", method = HttpMethods.POST,
+      headers = client.toOption.map(_ => headers.`X-Forwarded-For`(client)).toList ++
+        nonce.map(n => headers.RawHeader("Idempotency-Key", n)),
+      entity = HttpEntity(ContentTypes.`application/json`, evt.toJson.compactPrint))).flatMap {
+      case HttpResponse(StatusCodes.OK, hs, entity, protocol) =>
+        Unmarshal(entity).to[String].map(_.parseJson.convertTo[E])
+      case HttpResponse(sc@(StatusCodes.TooManyRequests | StatusCodes.ServiceUnavailable), hs, entity, protocol) =>
+        entity.dataBytes.runWith(Sink.ignore)
+        Future.failed(EventServerHttpProtocol.PostRejected(sc, hs.find(_.is("retry-after")).map(_.value)))
+      case HttpResponse(sc, hs, entity, protocol) =>
+        entity.dataBytes.runWith(Sink.ignore)
+        Future.failed(new IllegalStateException(s"Response from $leader$uri ${sc.toString()}"))
+    }.andThen { case _ => metrics.inFlight.decrementAndGet() }
+  }
+
+  override def postTradeEvent(te: TradeProcess.PostedEvent, nonce: Option[String],
+                              client: RemoteAddress): Future[TradeProcess.PostedEvent] =
+    postToLeader("/trade", te, client, nonce)
+
+  override def postArbitratorEvent(ae: ArbitratorManager.PostedEvent,
+                                   client: RemoteAddress): Future[ArbitratorManager.PostedEvent] =
+    postToLeader("/arbitrator", ae, client)
+
+  override def receive: Receive = {
+
+    case ReplicateEvents =>
+      replicate(if (data.lastSeq > 0) Some(data.lastSeq) else None)
+
+    // reconnect right away if the stream ended because the follower is behind
+
+    case ReplicationStopped(received) =>
+      if (received) self ! ReplicateEvents
+      else system.scheduler.scheduleOnce(Config.serverFollowerRetry, self, ReplicateEvents)
+
+    case EventReplicated(evt, json) =>
+      val lastSeq = data.lastSeq
+      evt match {
+        case ArbitratorEventPosted(ae, Some(seq)) if seq > lastSeq =>
+          data = data.arbitratorEventApplied(seq, ae, json)
+        case TradeEventPosted(te, Some(seq), _) if seq > lastSeq =>
+          data = data.tradeEventPosted(seq, te, json)
+        case _ =>
+      }
+      if (data.lastSeq > lastSeq) {
+        readData.set(data)
+        publish(evt, data)
+      }
+      sender() ! data.lastSeq
+
+    case CompactTrades =>
+      val now = DateTime.now()
+      val finished = data.finishedTrades(now.minus(Config.serverCompactFinishedAfter.toMillis),
+        now.minus(Config.serverCompactFiatSentAfter.toMillis))
+      if (finished.nonEmpty) {
+        data = data.tradesCompacted(finished.toSeq.map { case (id, es) => CompactedTrade(id, es) }, data.lastSeq)
+        readData.set(data)
+      }
+
+    // handle streaming subscribers
+
+    case SubscribePostedEvents(ref, after, filter) =>
+      subscribe(ref, after, filter, data)
+
+    case SendHeartbeat =>
+      sendHeartbeat(data)
+
+    case Terminated(ref) =>
+      unsubscribe(ref)
+  }
+}
@@ -16,24 +16,32 @@
 
 package org.bytabit.ft.server
 
-import akka.actor.{ActorSystem, Props}
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicReference
+
+import akka.actor.{ActorRef, ActorSystem, Props, Status, Terminated}
 import akka.event.Logging
+import akka.http.scaladsl.model.RemoteAddress
 import akka.pattern.ask
-import akka.persistence.{PersistentActor, SnapshotOffer}
+import akka.persistence.{PersistentActor, RecoveryCompleted, SaveSnapshotFailure, SaveSnapshotSuccess, SnapshotOffer, SnapshotSelectionCriteria}
 import akka.stream.ActorMaterializer
-import akka.util.Timeout
+import akka.util.{ByteString, Timeout}
 import org.bitcoinj.core.Sha256Hash
 import org.bytabit.ft.arbitrator.ArbitratorManager
 import org.bytabit.ft.server.EventServer._
+import org.bytabit.ft.server.PostedEventLog.Entry
+import org.bytabit.ft.server.TradePartition.{DeleteEventsUpTo, PartitionRecovered, PersistTradeEvent, TradeEventFailed, TradeEventPersisted}
 import org.bytabit.ft.trade.TradeProcess
 import org.bytabit.ft.trade.model.Contract
 import org.bytabit.ft.util._
 import org.bytabit.ft.wallet.model.Arbitrator
 import org.joda.time.DateTime
+import spray.json._
 
 import scala.concurrent.Future
 import scala.concurrent.duration._
 import scala.language.postfixOps
+import scala.util.{Failure, Success}
 
 // to start as stand-alone app (no UI)
 
@@ -51,10 +59,19 @@ object Main extends App {
     if (Config.createDir(Config.snapshotStoreDir).isFailure) {
       system.log.error("Unable to create snapshot directory.")
     }
-    if (Config.createDir(Config.journalDir).isFailure) {
+    if (Config.createDir(Config.pluginJournalDir).isFailure) {
       system.log.error("Unable to create journal directory.")
     }
-    EventServer.actorOf()(system)
+    if (Config.createDir(Config.archiveDir).isFailure) {
+      system.log.error("Unable to create archive directory.")
+    }
+    Config.serverLeaderUrl match {
+      case Some(leader) =>
+        system.log.info(s"Following EventServer at $leader")
+        EventFollower.actorOf(leader)(system)
+      case None =>
+        EventServerHost.actorOf()(system)
+    }
   } else {
     system.log.error("EventServer not enabled in config file.")
     system.shutdown()
@@ -66,39 +83,104 @@ object EventServer {
 
   // actor setup
 
-  def props() = Props(new EventServer())
+  def props(namespace: String)(implicit materializer: ActorMaterializer) = Props(new EventServer(namespace))
 
   val name = EventServer.getClass.getSimpleName
-  val persistenceId = s"$name-persister"
 
-  def actorOf()(implicit system: ActorSystem) =
-    system.actorOf(props(), name)
+  // each hosted arbitrator has its own namespace, the arbitrator hosted at / has the empty namespace
+  // and keeps the names used before more than one could be hosted
+
+  def serverName(namespace: String): String = if (namespace.isEmpty) name else s"$name-$namespace"
+
+  def persistenceId(namespace: String) = s"${serverName(namespace)}-persister"
 
   // commands
 
   sealed trait Command
 
-  final case class PostTradeEvent(evt: TradeProcess.PostedEvent) extends Command
+  // a post with an idempotency key that was already posted gets the originally posted event
+
+  final case class PostTradeEvent(evt: TradeProcess.PostedEvent, key: Option[String] = None) extends Command
 
   final case class PostArbitratorEvent(evt: ArbitratorManager.PostedEvent) extends Command
 
+  final case class SubscribePostedEvents(subscriber: ActorRef, after: Option[Long], filter: PostedEventsFilter) extends Command
+
+  case object SendHeartbeat extends Command
+
+  case object SaveDataSnapshot extends Command
+
+  case object FlushPostedEvents extends Command
+
+  case object LogWriteStats extends Command
+
+  // replies with the journal write stats since they were last logged
+
+  case object GetWriteStats extends Command
+
+  case object CompactTrades extends Command
+
   // events
 
   sealed trait Event
 
-  case class ArbitratorEventPosted(event: ArbitratorManager.PostedEvent) extends Event {
+  // seq is only missing from events persisted before sequence numbers were assigned when posted,
+  // those were given the next sequence number in journal order
+
+  case class ArbitratorEventPosted(event: ArbitratorManager.PostedEvent, seq: Option[Long] = None) extends Event {
     assert(event.posted.isDefined)
   }
 
-  case class TradeEventPosted(event: TradeProcess.PostedEvent) extends Event {
+  case class TradeEventPosted(event: TradeProcess.PostedEvent, seq: Option[Long] = None,
+                              key: Option[String] = None) extends Event {
     assert(event.posted.isDefined)
   }
 
+  // only events up to upToSeq are removed, so it can be applied after trade partitions are recovered
+
+  case class TradesCompacted(trades: Seq[CompactedTrade], upToSeq: Long) extends Event
+
+  // summary of a finished trade whose posted events were moved to the trade archive
+
+  final case class CompactedTrade(id: UUID, events: Int, lastSeq: Long, lastEvent: String, lastPosted: DateTime)
+
+  object CompactedTrade {
+
+    def apply(id: UUID, entries: Seq[Entry[TradeProcess.PostedEvent]]): CompactedTrade =
+      CompactedTrade(id, entries.size, entries.last.seq, entries.last.event.getClass.getSimpleName,
+        entries.last.event.posted.get)
+  }
+
+  // a trade is finished once its offer is canceled or a dispute is certified, a trade without a
+  // dispute is only done after the payout which isn't posted, so it's finished a while after fiat was sent
+
+  def tradeFinished(last: TradeProcess.PostedEvent, finishedBefore: DateTime, fiatSentBefore: DateTime): Boolean =
+    last match {
+      case _: TradeProcess.BtcBuyerCanceledOffer | _: TradeProcess.FiatSentCertified | _: TradeProcess.FiatNotSentCertified =>
+        last.posted.get.isBefore(finishedBefore)
+      case _: TradeProcess.BtcBuyerFiatSent =>
+        last.posted.get.isBefore(fiatSentBefore)
+      case _ =>
+        false
+    }
+
+  // a trade is closed once its offer is canceled or a dispute is certified
+
+  def tradeClosed(last: TradeProcess.PostedEvent): Boolean = last match {
+    case _: TradeProcess.BtcBuyerCanceledOffer | _: TradeProcess.FiatSentCertified | _: TradeProcess.FiatNotSentCertified =>
+      true
+    case _ =>
+      false
+  }
+
   // data
 
   case class Data(arbitrator: Option[Arbitrator] = None, contract: Seq[Contract] = Seq(),
-                  postedArbitratorEvents: Seq[ArbitratorManager.PostedEvent] = Seq(),
-                  postedTradeEvents: Seq[TradeProcess.PostedEvent] = Seq()) {
+                  postedArbitratorEvents: PostedEventLog[ArbitratorManager.PostedEvent] = PostedEventLog(),
+                  postedTradeEvents: PostedEventLog[TradeProcess.PostedEvent] = PostedEventLog(),
+                  lastSeq: Long = 0, compactedTrades: Map[UUID, CompactedTrade] = Map(),
+                  marketStats: MarketStats = MarketStats(), tradeIndex: TradeEventIndex = TradeEventIndex(),
+                  postKeys: PostedEventDedup = PostedEventDedup(Config.serverPostDedupKeys)) {
 
     def arbitratorCreated(a: Arbitrator) =
       this.copy(arbitrator = Some(a))
@@ -109,164 +191,655 @@ object EventServer {
     def contractTemplateRemoved(id: Sha256Hash) =
       this.copy(contract = contract.filterNot(_.id == id))
 
-    def arbitratorEventPosted(event: ArbitratorManager.PostedEvent) =
-      this.copy(postedArbitratorEvents = postedArbitratorEvents :+ event)
+    // each posted event has a sequence number, shared by arbitrator and trade events
 
-    def tradeEventPosted(event: TradeProcess.PostedEvent) =
-      this.copy(postedTradeEvents = postedTradeEvents :+ event)
+    def arbitratorEventPosted(seq: Long, event: ArbitratorManager.PostedEvent, json: ByteString) =
+      this.copy(postedArbitratorEvents = postedArbitratorEvents.append(seq, event, json), lastSeq = Math.max(lastSeq, seq))
 
-    def postedEvents(since: Option[DateTime]) = since match {
-      case Some(s: DateTime) =>
-        PostedEvents(postedArbitratorEvents.filter(_.posted.get.isAfter(s)),
-          postedTradeEvents.filter(_.posted.get.isAfter(s)))
-      case None =>
-        PostedEvents(postedArbitratorEvents, postedTradeEvents)
+    // arbitrator events also update the arbitrator and its contracts
+
+    def arbitratorEventApplied(seq: Long, event: ArbitratorManager.PostedEvent, json: ByteString) = event match {
+      case ac: ArbitratorManager.ArbitratorCreated =>
+        arbitratorEventPosted(seq, ac, json).arbitratorCreated(ac.arbitrator)
+      case ca: ArbitratorManager.ContractAdded if arbitrator.isDefined =>
+        arbitratorEventPosted(seq, ca, json).contractTemplateAdded(ca.contract)
+      case ctr: ArbitratorManager.ContractRemoved =>
+        arbitratorEventPosted(seq, ctr, json).contractTemplateRemoved(ctr.id)
+      case _ =>
+        this
+    }
+
+    // contracts added by the arbitrator, including removed contracts that offers may still refer to
+
+    def contractAdded(id: Sha256Hash): Option[Contract] = postedArbitratorEvents.entries.reverseIterator.map(_.event).collectFirst {
+      case ca: ArbitratorManager.ContractAdded if ca.contract.id == id => ca.contract
+    }
+
+    def tradeEventPosted(seq: Long, event: TradeProcess.PostedEvent, json: ByteString) =
+      this.copy(postedTradeEvents = postedTradeEvents.append(seq, event, json), lastSeq = Math.max(lastSeq, seq),
+        marketStats = marketStats.eventPosted(event), tradeIndex = tradeIndex.added(seq, event))
+
+    // idempotency keys of posted trade events, kept in snapshots so repeated posts are found after a restart
+
+    def postKeyAdded(key: String, evt: TradeEventPosted) =
+      this.copy(postKeys = postKeys.added(key, evt))
+
+    // posted events of finished trades, grouped by trade id in sequence order
+
+    def finishedTrades(finishedBefore: DateTime, fiatSentBefore: DateTime): Map[UUID, Vector[Entry[TradeProcess.PostedEvent]]] =
+      postedTradeEvents.entries.groupBy(_.event.id).filter {
+        case (id, es) => tradeFinished(es.last.event, finishedBefore, fiatSentBefore)
+      }
+
+    // compacted trades are removed from posted trade events, their sequence numbers are not reused
+
+    def tradesCompacted(cts: Seq[CompactedTrade], upToSeq: Long) = {
+      val ids = cts.map(_.id).toSet
+      val merged = cts.map(ct => ct.id -> compactedTrades.get(ct.id).map(c => ct.copy(events = c.events + ct.events)).getOrElse(ct))
+      this.copy(postedTradeEvents = postedTradeEvents.filterNot(e => e.seq <= upToSeq && ids.contains(e.event.id)),
+        compactedTrades = compactedTrades ++ merged, tradeIndex = tradeIndex.removed(ids, upToSeq),
+        postKeys = postKeys.filter(e => e.seq.exists(_ > upToSeq) || !ids.contains(e.event.id)))
+    }
+
+    // current state as posted events up to lastSeq, the latest arbitrator created, its current contracts
+    // and the events of trades that aren't closed, so a new client doesn't replay the whole log, removed
+    // contracts are added and removed again if an open trade's offer refers to them
+
+    def state(filter: PostedEventsFilter) = {
+      val closed = postedTradeEvents.entries.groupBy(_.event.id).collect {
+        case (id, es) if tradeClosed(es.last.event) => id
+      }.toSet
+      val tes = postedTradeEvents.entries.filter { e =>
+        !closed.contains(e.event.id) && (filter.isEmpty || tradeIndex.matches(filter, e.event))
+      }
+      val referenced = tes.map(_.event).collect {
+        case co: TradeProcess.BtcBuyerCreatedOffer => co.offer.offer.contract.id
+      }.toSet
+      val created = postedArbitratorEvents.entries.filter(_.event.isInstanceOf[ArbitratorManager.ArbitratorCreated]).lastOption
+      val aes = postedArbitratorEvents.entries.filter { e =>
+        e.event match {
+          case ac: ArbitratorManager.ArbitratorCreated => created.exists(_.seq == e.seq)
+          case ca: ArbitratorManager.ContractAdded => contract.exists(_.id == ca.contract.id) || referenced.contains(ca.contract.id)
+          case cr: ArbitratorManager.ContractRemoved => !contract.exists(_.id == cr.id) && referenced.contains(cr.id)
+          case _ => false
+        }
+      }
+      SerializedPostedEvents(aes.map(_.json), tes.map(_.json), if (lastSeq > 0) Some(lastSeq) else None, lastSeq)
     }
+
+    def postedEvents(since: Option[DateTime]) =
+      SerializedPostedEvents(postedArbitratorEvents.entriesPostedAfter(since).map(_.json),
+        postedTradeEvents.entriesPostedAfter(since).map(_.json), if (lastSeq > 0) Some(lastSeq) else None, lastSeq)
+
+    // page of up to limit arbitrator and trade events, in sequence order, after the given cursor
+
+    def postedEventsAfter(after: Option[Long], limit: Int) = {
+      val aes = postedArbitratorEvents.entriesAfter(after, limit)
+      val tes = postedTradeEvents.entriesAfter(after, limit)
+      val cursor = (aes.map(_.seq) ++ tes.map(_.seq)).sorted.take(limit).lastOption
+      val last = cursor.getOrElse(0L)
+      SerializedPostedEvents(aes.takeWhile(_.seq <= last).map(_.json), tes.takeWhile(_.seq <= last).map(_.json),
+        cursor, lastSeq)
+    }
+
+    // page of arbitrator events and trade events matching the filter, found with the trade event index, if
+    // the page isn't full there are no more matching events so the cursor moves to the last sequence number
+
+    def postedEventsMatching(after: Option[Long], limit: Int, filter: PostedEventsFilter) =
+      if (filter.isEmpty) postedEventsAfter(after, limit)
+      else {
+        val aes = postedArbitratorEvents.entriesAfter(after, limit)
+        val tes = tradeIndex.matching(filter, after, limit).flatMap(postedTradeEvents.entry)
+        val seqs = (aes.map(_.seq) ++ tes.map(_.seq)).sorted.take(limit)
+        val cursor = if (seqs.size >= limit) seqs.lastOption else if (lastSeq > 0) Some(lastSeq) else None
+        val last = seqs.lastOption.getOrElse(0L)
+        SerializedPostedEvents(aes.takeWhile(_.seq <= last).map(_.json), tes.takeWhile(_.seq <= last).map(_.json),
+          cursor, lastSeq)
+      }
+
+    // up to limit events matching the filter after the given cursor, one event per page, in sequence order
+
+    def postedEventsStream(after: Option[Long], limit: Int, filter: PostedEventsFilter): Seq[SerializedPostedEvents] = {
+      val aes = postedArbitratorEvents.entriesAfter(after, limit)
+        .map(e => e.seq -> SerializedPostedEvents(Seq(e.json), Seq(), Some(e.seq), lastSeq))
+      val tes = (if (filter.isEmpty) postedTradeEvents.entriesAfter(after, limit)
+      else tradeIndex.matching(filter, after, limit).flatMap(postedTradeEvents.entry))
+        .map(e => e.seq -> SerializedPostedEvents(Seq(), Seq(e.json), Some(e.seq), lastSeq))
+      (aes ++ tes).sortBy(_._1).take(limit).map(_._2)
+    }
+
+    // posted times never go backwards so the event logs stay ordered even if the clock does
+
+    def nextPosted(now: DateTime = DateTime.now()): DateTime =
+      (postedArbitratorEvents.latestPosted.toSeq ++ postedTradeEvents.latestPosted.toSeq :+ now)
+        .reduce(DateTimeOrdering.max)
   }
 
 }
 
-class EventServer() extends PersistentActor with EventServerHttpProtocol {
+// events of one hosted arbitrator, its routes are served by the EventServerHost's http server
+
+class EventServer(namespace: String)(implicit val materializer: ActorMaterializer) extends PersistentActor
+  with EventServerHttpProtocol with PostedEventsPublisher {
 
   // implicits
 
   override implicit val system = context.system
 
-  override implicit val materializer = ActorMaterializer()
-
   implicit val dispatcher = system.dispatcher
 
   implicit val timeout = Timeout(5 seconds) // needed for `?` below
 
-  override val bindingFuture = binding(Config.localAddress, Config.localPort)
+  context.parent ! EventServerHost.HostRoute(namespace, route)
+
+  // metrics
+
+  override val metrics = new ServerMetrics(namespace, Config.serverTradePartitions)
 
   // logging
 
   override val log = Logging(context.system, this)
 
-  // persistence
+  // persistence, arbitrator events and compactions are persisted by this actor and trade events by
+  // the trade partitions
 
-  override def persistenceId: String = EventServer.persistenceId
+  override def persistenceId: String = EventServer.persistenceId(namespace)
 
   private var data = Data()
 
+  // read model, data is immutable so a copy is published after recovery and after each persisted
+  // batch and http threads read it without going through the actor, its version is data.lastSeq
+
+  private val readData = new AtomicReference[Data](data)
+
+  def publishReadData(): Unit = readData.set(data)
+
+  // trade partitions, each persists the trade events of the trades in its partition
+
+  val partitions = (0 until Config.serverTradePartitions).map(p =>
+    context.actorOf(TradePartition.props(serverName(namespace), p), TradePartition.name(p)))
+
+  def partitionOf(te: TradeEventPosted): Int = TradePartition.partitionOf(te.event.id, partitions.size)
+
+  def partition(id: UUID): ActorRef = partitions(TradePartition.partitionOf(id, partitions.size))
+
+  // compacted trades of this arbitrator
+
+  val archive = new TradeArchive(TradeArchive.dir(namespace))
+
+  if (Config.createDir(archive.dir).isFailure) {
+    log.error(s"Unable to create archive directory ${archive.dir}.")
+  }
+
+  // not ready until all partitions are recovered and merged, commands are stashed until then
+
+  private var ready = false
+
+  private var recoveredPartitions = Map[Int, Vector[TradeEventPersisted]]()
+
+  private var recoveredCompactions = Vector[TradesCompacted]()
+
+  private var snapshotLastSeq = 0L
+
+  // streaming subscribers
+
+  val heartbeat = system.scheduler.schedule(Config.serverEventsStreamHeartbeat, Config.serverEventsStreamHeartbeat,
+    self, SendHeartbeat)
+
+  // snapshots, saved after snapshot-events events or snapshot-interval if there are any new events
+
+  private val recoveryStart = System.currentTimeMillis()
+
+  private var eventsRecovered = 0L
+
+  private var eventsSinceSnapshot = 0L
+
+  private var savingLastSeq = Map[Long, Long]()
+
+  val snapshotTimer = system.scheduler.schedule(Config.serverSnapshotInterval, Config.serverSnapshotInterval,
+    self, SaveDataSnapshot)
+
+  // not while an arbitrator event is persisted but waiting for an earlier trade event, the snapshot
+  // wouldn't include it and its journal entry would be deleted
+
+  def saveDataSnapshot(): Unit = if (eventsSinceSnapshot > 0 && !arbitratorUncommitted) {
+    saveSnapshot(data)
+    savingLastSeq = savingLastSeq + (snapshotSequenceNr -> data.lastSeq)
+    eventsSinceSnapshot = 0
+  }
+
+  // sequence numbers are given when events are posted, events are persisted by this actor or a trade
+  // partition and applied to data in sequence order, so a reader's cursor never skips an event that
+  // is still being persisted
+
+  private var nextSeq = 0L
+
+  private var commits = SequencedCommits[(Event, Option[ByteString])]()
+
+  private var inFlight = Map[Long, (ActorRef, Long, Option[UUID])]()
+
+  // trade events sent to a partition and not yet persisted, sent again if the partition restarts
+
+  private var writing = Map[Long, TradeEventPosted]()
+
+  // trade events being persisted by idempotency key, keys of applied events are in data, and callers of
+  // repeated posts waiting for the original event
+
+  private var pendingKeys = Map[String, TradeEventPosted]()
+
+  private var duplicates = Map[Long, Vector[ActorRef]]()
+
+  private var deduplicated = 0L
+
+  private var writeStats = WriteStats()
+
+  val writeStatsTimer = system.scheduler.schedule(Config.serverWriteStatsInterval, Config.serverWriteStatsInterval,
+    self, LogWriteStats)
+
+  def arbitratorUncommitted: Boolean = commits.waiting.exists {
+    case (_: ArbitratorEventPosted, _) => true
+    case _ => false
+  }
+
+  def reserveSeq(id: Option[UUID]): Long = {
+    nextSeq += 1
+    inFlight = inFlight + (nextSeq -> ((sender(), System.currentTimeMillis(), id)))
+    metrics.inFlight.set(inFlight.size)
+    nextSeq
+  }
+
+  // apply persisted events in sequence order, a failed event is skipped and its caller answered with the failure
+
+  def commit(seq: Long, evt: Option[(Event, Option[ByteString])]): Unit = {
+    val (c, applied) = commits.commit(seq, evt)
+    commits = c
+    applied.foreach { case (s, evt) =>
+      val (ref, posted, _) = inFlight(s)
+      inFlight = inFlight - s
+      writing.get(s).foreach(e => metrics.partitionWriting.decrementAndGet(partitionOf(e)))
+      writing = writing - s
+      val refs = ref +: duplicates.getOrElse(s, Vector())
+      duplicates = duplicates - s
+      // keys of applied events are in data, a key whose event failed is dropped so the post can be retried
+      if (pendingKeys.nonEmpty) pendingKeys = pendingKeys.filterNot(_._2.seq.contains(s))
+      evt match {
+        case Some((e, json)) =>
+          updateDataAndPublish(e, json)
+          refs.foreach(_ ! e)
+        case None =>
+          refs.foreach(_ ! Status.Failure(new IllegalStateException(s"Event $s not persisted")))
+      }
+      metrics.commit.recordMillis(System.currentTimeMillis() - posted)
+    }
+    metrics.inFlight.set(inFlight.size)
+    if (applied.nonEmpty) {
+      publishReadData()
+      if (eventsSinceSnapshot >= Config.serverSnapshotEvents) saveDataSnapshot()
+    }
+  }
+
+  // a restarted partition sends the events it recovered, events it was persisting that it recovered are
+  // committed and the others are sent again, the partition doesn't persist an event it already has twice
+
+  def partitionRestarted(p: Int, tes: Vector[TradeEventPersisted]): Unit = {
+    val lost = writing.filter { case (s, e) => partitionOf(e) == p }
+    val (persisted, resent) = TradePartition.restarted(tes, lost.values.toVector)
+    log.info(s"Trade partition $p restarted, ${persisted.size} events recovered and ${resent.size} sent again")
+    persisted.foreach(te => commit(te.evt.seq.get, Some((te.evt, Some(te.json)))))
+    resent.foreach(e => partitions(p) ! PersistTradeEvent(e))
+  }
+
+  // group commit, arbitrator events are batched and each caller is answered once its event is applied
+
+  private var pending = Vector[Event]()
+
+  private var lastPosted: Option[DateTime] = None
+
+  // posted times never go backwards, including for events waiting to be persisted
+
+  def nextPosted(): DateTime = {
+    val posted = (lastPosted.toSeq :+ data.nextPosted()).reduce(DateTimeOrdering.max)
+    lastPosted = Some(posted)
+    posted
+  }
+
+  def arbitratorPending: Boolean = pending.exists {
+    case ArbitratorEventPosted(ac: ArbitratorManager.ArbitratorCreated, _) => true
+    case _ => false
+  }
+
+  def post(ae: ArbitratorManager.PostedEvent): Unit = {
+    val evt = ArbitratorEventPosted(ae, Some(reserveSeq(None)))
+    if (pending.isEmpty) system.scheduler.scheduleOnce(Config.serverWriteFlushInterval, self, FlushPostedEvents)
+    pending = pending :+ evt
+    if (pending.size >= Config.serverWriteBatchSize) flushPostedEvents()
+  }
+
+  def post(te: TradeProcess.PostedEvent, key: Option[String]): Unit = {
+    val evt = TradeEventPosted(te, Some(reserveSeq(Some(te.id))), key)
+    key.foreach(k => pendingKeys = pendingKeys + (k -> evt))
+    writing = writing + (evt.seq.get -> evt)
+    metrics.partitionWriting.incrementAndGet(partitionOf(evt))
+    partition(te.id) ! PersistTradeEvent(evt)
+  }
+
+  def postedKey(key: String): Option[TradeEventPosted] = pendingKeys.get(key).orElse(data.postKeys.get(key))
+
+  // a repeated post is answered with the original event once it's applied
+
+  def repeated(evt: TradeEventPosted): Unit = {
+    val seq = evt.seq.get
+    if (seq <= commits.watermark) sender() ! evt
+    else duplicates = duplicates + (seq -> (duplicates.getOrElse(seq, Vector()) :+ sender()))
+    deduplicated += 1
+  }
+
+  def flushPostedEvents(): Unit = if (pending.nonEmpty) {
+    val batch = pending
+    pending = Vector()
+    val start = System.nanoTime()
+    persist(batch) {
+      case evt@ArbitratorEventPosted(_, Some(seq)) =>
+        if (evt eq batch.last) {
+          val nanos = System.nanoTime() - start
+          writeStats = writeStats.batchWritten(batch.size, nanos)
+          batch.foreach(_ => metrics.persist.record(nanos))
+        }
+        commit(seq, Some((evt, None)))
+      case evt => log.error(s"Unexpected event $evt")
+    }
+  }
+
+  // compaction, finished trades are written to the trade archive before they are removed
+
+  val compactTimer = system.scheduler.schedule(Config.serverCompactInterval, Config.serverCompactInterval,
+    self, CompactTrades)
+
+  def compactTrades(): Unit = {
+    val now = DateTime.now()
+    val inFlightIds = inFlight.values.flatMap(_._3).toSet
+    val finished = data.finishedTrades(now.minus(Config.serverCompactFinishedAfter.toMillis),
+      now.minus(Config.serverCompactFiatSentAfter.toMillis)).filterKeys(id => !inFlightIds.contains(id))
+
+    val archived = finished.toSeq.flatMap { case (id, es) =>
+      archive.write(id, es.map(_.json), append = data.compactedTrades.contains(id)) match {
+        case Success(f) =>
+          Some(CompactedTrade(id, es))
+        case Failure(f) =>
+          log.error(s"Unable to archive trade $id: $f")
+          None
+      }
+    }
+
+    if (archived.nonEmpty) persist(TradesCompacted(archived, data.lastSeq)) { evt =>
+      updateData(evt)
+      publishReadData()
+      eventsSinceSnapshot += 1
+      log.info(s"Compacted ${archived.size} finished trades, ${data.postedTradeEvents.size} trade events remaining")
+    }
+  }
+
+  override def postStop(): Unit = {
+    heartbeat.cancel()
+    compactTimer.cancel()
+    snapshotTimer.cancel()
+    writeStatsTimer.cancel()
+    super.postStop()
+  }
+
   // http server handlers
 
-  override def getPostedEvents(since: Option[DateTime]) = data.postedEvents(since)
+  override def getPostedEvents(since: Option[DateTime]) = readData.get.postedEvents(since)
+
+  override def getPostedEventsAfter(after: Option[Long], limit: Int, filter: PostedEventsFilter) =
+    readData.get.postedEventsMatching(after, limit, filter)
+
+  override def postedEventsVersion: Long = readData.get.lastSeq
 
-  override def postTradeEvent(te: TradeProcess.PostedEvent): Future[TradeProcess.PostedEvent] = {
+  override def getState(filter: PostedEventsFilter) = readData.get.state(filter)
+
+  override def getStats = {
+    val d = readData.get
+    (d.lastSeq, d.marketStats.summary)
+  }
+
+  override def metricsText: String = {
+    val saved = metrics.snapshotSaved.get
+    metrics.text(Seq(
+      ("ft_posts_in_flight", "", metrics.inFlight.get.toDouble),
+      ("ft_posts_admitted_in_flight", "", admission.inFlight.get.toDouble),
+      ("ft_snapshot_age_seconds", "", if (saved > 0) (System.currentTimeMillis() - saved) / 1000.0 else -1),
+      ("ft_recovery_duration_seconds", "", metrics.recoveryMillis.get / 1000.0)
+    ) ++ partitions.indices.map(p => ("ft_partition_writing", s"""partition="$p"""", metrics.partitionWriting.get(p).toDouble)) ++
+      ServerMetrics.dataGauges(readData.get))
+  }
+
+  override def getArchivedTradeEvents(id: UUID): Future[Option[Seq[ByteString]]] =
+    Future(archive.read(id).get)
+
+  override def postTradeEvent(te: TradeProcess.PostedEvent, nonce: Option[String],
+                              client: RemoteAddress): Future[TradeProcess.PostedEvent] = {
     for {
-      pte <- (self ask PostTradeEvent(te)).mapTo[TradeEventPosted]
+      pte <- (self ask PostTradeEvent(te, nonce.map(PostedEventDedup.key(te, _)))).mapTo[TradeEventPosted]
     } yield pte.event
   }
 
-  override def postArbitratorEvent(ae: ArbitratorManager.PostedEvent): Future[ArbitratorManager.PostedEvent] = {
+  override def postArbitratorEvent(ae: ArbitratorManager.PostedEvent,
+                                   client: RemoteAddress): Future[ArbitratorManager.PostedEvent] = {
     for {
       pae <- (self ask PostArbitratorEvent(ae)).mapTo[ArbitratorEventPosted]
     } yield pae.event
   }
 
-  // apply events to data
+  // serialize posted events once when they are applied
 
-  def applyEvent(event: EventServer.Event, data: Data): Data = event match {
-    case ArbitratorEventPosted(ac: ArbitratorManager.ArbitratorCreated) =>
-      data.arbitratorEventPosted(ac).arbitratorCreated(ac.arbitrator)
+  def json(ae: ArbitratorManager.PostedEvent): ByteString = PostedEventJson(ae)
 
-    case ArbitratorEventPosted(ca: ArbitratorManager.ContractAdded) if data.arbitrator.isDefined =>
-      data.arbitratorEventPosted(ca).contractTemplateAdded(ca.contract)
+  def json(te: TradeProcess.PostedEvent): ByteString = PostedEventJson(te)
 
-    case ArbitratorEventPosted(ctr: ArbitratorManager.ContractRemoved) =>
-      data.arbitratorEventPosted(ctr).contractTemplateRemoved(ctr.id)
+  // offers posted with only their contract's id refer to a contract added by the arbitrator
 
-    case TradeEventPosted(te: TradeProcess.PostedEvent) =>
-      data.tradeEventPosted(te)
+  override def knownContract(id: Sha256Hash): Option[Contract] = readData.get.contractAdded(id)
+
+  // apply events to data, events without a sequence number are from before they were assigned when posted
+
+  def applyEvent(event: EventServer.Event, data: Data, cached: Option[ByteString] = None): Data = event match {
+    case ArbitratorEventPosted(ae: ArbitratorManager.PostedEvent, seq) =>
+      data.arbitratorEventApplied(seq.getOrElse(data.lastSeq + 1), ae, json(ae))
+
+    case TradeEventPosted(te: TradeProcess.PostedEvent, seq, key) =>
+      val s = seq.getOrElse(data.lastSeq + 1)
+      val d = data.tradeEventPosted(s, te, cached.getOrElse(json(te)))
+      key.fold(d)(k => d.postKeyAdded(k, TradeEventPosted(te, Some(s), key)))
+
+    case TradesCompacted(cts, upToSeq) =>
+      data.tradesCompacted(cts, upToSeq)
 
     case e =>
       log.error(s"Unexpected event $e")
       data
   }
 
-  def updateData(evt: Event) = {
-    data = applyEvent(evt, data)
+  def updateData(evt: Event, cached: Option[ByteString] = None) = {
+    data = applyEvent(evt, data, cached)
+  }
+
+  // update data and send newly posted event to streaming subscribers
+
+  def updateDataAndPublish(evt: Event, cached: Option[ByteString]) = {
+    val lastSeq = data.lastSeq
+    updateData(evt, cached)
+    if (data.lastSeq > lastSeq) publish(evt, data)
+    eventsSinceSnapshot += 1
+  }
+
+  // merge trade events recovered by the partitions in sequence order, events up to the snapshot are
+  // already in data, compactions are applied after because they may remove recovered trade events
+
+  def partitionsRecovered(): Unit = {
+    val tes = recoveredPartitions.values.flatten.filter(_.evt.seq.exists(_ > snapshotLastSeq)).toVector.sortBy(_.evt.seq.get)
+    tes.foreach(te => updateData(te.evt, Some(te.json)))
+    recoveredCompactions.foreach(updateData(_))
+    eventsRecovered += tes.size
+    eventsSinceSnapshot += tes.size
+    recoveredPartitions = Map()
+    recoveredCompactions = Vector()
+
+    nextSeq = data.lastSeq
+    commits = SequencedCommits(data.lastSeq)
+    ready = true
+    metrics.recoveryMillis.set(System.currentTimeMillis() - recoveryStart)
+    publishReadData()
+    log.info(s"Recovered $eventsRecovered journal events from ${partitions.size} trade partitions " +
+      s"in ${System.currentTimeMillis() - recoveryStart} ms, journal size ${Config.dirSize(Config.pluginJournalDir)} bytes")
+    if (eventsSinceSnapshot >= Config.serverSnapshotEvents) self ! SaveDataSnapshot
+    unstashAll()
   }
 
   override val receiveRecover: Receive = {
 
+    case tc: TradesCompacted =>
+      recoveredCompactions = recoveredCompactions :+ tc
+      eventsRecovered += 1
+      eventsSinceSnapshot += 1
+
     case evt: Event =>
       updateData(evt)
+      eventsRecovered += 1
+      eventsSinceSnapshot += 1
 
-    case SnapshotOffer(_, snapshot: Data) =>
+    case SnapshotOffer(metadata, snapshot: Data) =>
+      log.info(s"Recovering from snapshot ${metadata.sequenceNr} with ${snapshot.lastSeq} posted events")
       data = snapshot
+      snapshotLastSeq = snapshot.lastSeq
+      metrics.snapshotSaved.set(metadata.timestamp)
+
+    case RecoveryCompleted =>
+      log.info(s"Recovered $eventsRecovered journal events, waiting for ${partitions.size} trade partitions")
   }
 
   override val receiveCommand: Receive = {
 
+    // handle partition recovery, other commands wait until all partitions are recovered
+
+    case PartitionRecovered(p, tes) if !ready =>
+      recoveredPartitions = recoveredPartitions + (p -> tes)
+      if (recoveredPartitions.size == partitions.size) partitionsRecovered()
+
+    case PartitionRecovered(p, tes) =>
+      partitionRestarted(p, tes)
+
+    case cmd if !ready =>
+      stash()
+
     // handlers for manager commands
 
     case PostArbitratorEvent(evt: ArbitratorManager.ArbitratorCreated) =>
-      val aep = ArbitratorEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(aep)(updateData)
-      sender ! aep
+      post(evt.copy(posted = Some(nextPosted())))
 
     case PostArbitratorEvent(evt: ArbitratorManager.ContractAdded) =>
       // TODO FT-26: send back errors if arbitrator not initialized or contract already exists
-      data.arbitrator.foreach { a =>
-        val aep = ArbitratorEventPosted(evt.copy(posted = Some(DateTime.now())))
-        persist(aep)(updateData)
-        sender ! aep
+      if (data.arbitrator.isDefined || arbitratorPending) {
+        post(evt.copy(posted = Some(nextPosted())))
       }
 
     case PostArbitratorEvent(evt: ArbitratorManager.ContractRemoved) =>
       // TODO FT-26: send back errors if arbitrator not initialized or contract already exists
-      data.arbitrator.foreach { a =>
-        val aep = ArbitratorEventPosted(evt.copy(posted = Some(DateTime.now())))
-        persist(aep)(updateData)
-        sender ! aep
+      if (data.arbitrator.isDefined || arbitratorPending) {
+        post(evt.copy(posted = Some(nextPosted())))
+      }
+
+    // handle trade events, repeated posts aren't posted again
+
+    case PostTradeEvent(evt, Some(key)) if postedKey(key).isDefined =>
+      repeated(postedKey(key).get)
+
+    case PostTradeEvent(evt: TradeProcess.BtcBuyerCreatedOffer, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    case PostTradeEvent(evt: TradeProcess.BtcBuyerCanceledOffer, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    case PostTradeEvent(evt: TradeProcess.BtcSellerTookOffer, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    case PostTradeEvent(evt: TradeProcess.BtcBuyerSignedOffer, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    case PostTradeEvent(evt: TradeProcess.BtcBuyerFiatSent, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    case PostTradeEvent(evt: TradeProcess.CertifyPaymentRequested, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    case PostTradeEvent(evt: TradeProcess.FiatSentCertified, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    case PostTradeEvent(evt: TradeProcess.FiatNotSentCertified, key) =>
+      post(evt.copy(posted = Some(nextPosted())), key)
+
+    // write pending posted events, and apply events persisted by trade partitions
+
+    case FlushPostedEvents =>
+      flushPostedEvents()
+
+    case TradeEventPersisted(evt, json, writeNanos) =>
+      writeStats = writeStats.batchWritten(1, writeNanos)
+      metrics.persist.record(writeNanos)
+      commit(evt.seq.get, Some((evt, Some(json))))
+
+    case TradeEventFailed(evt, cause) =>
+      commit(evt.seq.get, None)
+
+    case GetWriteStats =>
+      sender() ! writeStats
+
+    case LogWriteStats =>
+      if (writeStats.events > 0) log.info(s"Journal writes: $writeStats")
+      writeStats = WriteStats()
+      if (admission.rateLimited.get > 0 || admission.overloaded.get > 0) log.info(s"Post admission: $admission")
+      if (deduplicated > 0) log.info(s"Repeated posts: $deduplicated, ${data.postKeys.size} idempotency keys")
+      deduplicated = 0
+
+    // handle streaming subscribers
+
+    case SubscribePostedEvents(ref, after, filter) =>
+      subscribe(ref, after, filter, data)
+
+    case SendHeartbeat =>
+      sendHeartbeat(data)
+
+    case Terminated(ref) =>
+      unsubscribe(ref)
+
+    // handle compaction
+
+    case CompactTrades =>
+      compactTrades()
+
+    // handle snapshots, journal entries older than the latest snapshot aren't needed for recovery
+
+    case SaveDataSnapshot =>
+      saveDataSnapshot()
+
+    case SaveSnapshotSuccess(metadata) =>
+      log.info(s"Saved snapshot ${metadata.sequenceNr}")
+      metrics.snapshotSaved.set(metadata.timestamp)
+      val lastSeq = savingLastSeq.get(metadata.sequenceNr)
+      savingLastSeq = savingLastSeq.filterKeys(_ > metadata.sequenceNr).map(identity)
+      if (Config.serverDeleteJournalAfterSnapshot) {
+        deleteMessages(metadata.sequenceNr, permanent = true)
+        deleteSnapshots(SnapshotSelectionCriteria(metadata.sequenceNr - 1, metadata.timestamp - 1))
+        lastSeq.foreach(s => partitions.foreach(_ ! DeleteEventsUpTo(s)))
       }
 
-    // handle trade events
-
-    case PostTradeEvent(evt: TradeProcess.BtcBuyerCreatedOffer) =>
-      val tep = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(tep)(updateData)
-      sender ! tep
-
-    case PostTradeEvent(evt: TradeProcess.BtcBuyerCanceledOffer) =>
-      val tep = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(tep)(updateData)
-      sender ! tep
-
-    case PostTradeEvent(evt: TradeProcess.BtcSellerTookOffer) =>
-      val tep = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(tep)(updateData)
-      sender ! tep
-
-    case PostTradeEvent(evt: TradeProcess.BtcBuyerSignedOffer) =>
-      val tep = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(tep)(updateData)
-      sender ! tep
-
-    case PostTradeEvent(evt: TradeProcess.BtcBuyerFiatSent) =>
-      val bfs = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(bfs)(updateData)
-      sender ! bfs
-
-    case PostTradeEvent(evt: TradeProcess.CertifyPaymentRequested) =>
-      val tep = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(tep)(updateData)
-      sender ! tep
-
-    case PostTradeEvent(evt: TradeProcess.FiatSentCertified) =>
-      val tep = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(tep)(updateData)
-      sender ! tep
-
-    case PostTradeEvent(evt: TradeProcess.FiatNotSentCertified) =>
-      val tep = TradeEventPosted(evt.copy(posted = Some(DateTime.now())))
-      persist(tep)(updateData)
-      sender ! tep
-
-    case "snap" => saveSnapshot(data)
+    case SaveSnapshotFailure(metadata, reason) =>
+      log.error(s"Failed to save snapshot ${metadata.sequenceNr}: $reason")
+      savingLastSeq = savingLastSeq - metadata.sequenceNr
+
+    case "snap" =>
+      eventsSinceSnapshot = Math.max(eventsSinceSnapshot, 1)
+      saveDataSnapshot()
 
     case "print" => println(data)
   }
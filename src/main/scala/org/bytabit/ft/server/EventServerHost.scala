@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.concurrent.atomic.AtomicReference
+
+import akka.actor.{Actor, ActorSystem, Props}
+import akka.event.Logging
+import akka.http.scaladsl.Http
+import akka.http.scaladsl.server.Directives._
+import akka.http.scaladsl.server.Route
+import akka.stream.ActorMaterializer
+import org.bytabit.ft.server.EventServerHost._
+import org.bytabit.ft.util.Config
+
+object EventServerHost {
+
+  // actor setup
+
+  def props() = Props(new EventServerHost())
+
+  val name = EventServerHost.getClass.getSimpleName
+
+  def actorOf()(implicit system: ActorSystem) =
+    system.actorOf(props(), name)
+
+  // commands
+
+  sealed trait Command
+
+  final case class HostRoute(namespace: String, route: Route) extends Command
+
+}
+
+// hosts an event server for each configured arbitrator, they share one http server, materializer and
+// journal, each arbitrator's events are served under /<namespace> or at / if only one is hosted
+
+class EventServerHost() extends Actor {
+
+  implicit val system = context.system
+
+  implicit val materializer = ActorMaterializer()
+
+  val log = Logging(context.system, this)
+
+  val namespaces = if (Config.serverArbitrators.isEmpty) Seq("") else Config.serverArbitrators
+
+  // routes of the event servers, http threads read them without going through the actor
+
+  private val routes = new AtomicReference[Map[String, Route]](Map())
+
+  def hosted(namespace: String): Route = ctx =>
+    routes.get.get(namespace).map(_ (ctx)).getOrElse(ctx.reject())
+
+  val route: Route =
+    pathPrefix(Segment) { ns =>
+      if (ns.nonEmpty && namespaces.contains(ns)) hosted(ns) else reject
+    } ~ hosted("")
+
+  val bindingFuture = Http().bindAndHandle(route, Config.localAddress, Config.localPort)
+
+  namespaces.foreach { ns =>
+    context.actorOf(EventServer.props(ns), EventServer.serverName(ns))
+  }
+
+  override def receive: Receive = {
+
+    case HostRoute(ns, r) =>
+      log.info(s"Hosting events of ${if (ns.isEmpty) "arbitrator" else ns} at /$ns")
+      routes.set(routes.get + (ns -> r))
+  }
+}
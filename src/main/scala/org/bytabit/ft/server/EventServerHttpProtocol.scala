@@ -16,17 +16,40 @@
 
 package org.bytabit.ft.server
 
+import java.util.UUID
+
 import akka.actor.ActorSystem
 import akka.event.LoggingAdapter
 import akka.http.scaladsl.Http
-import akka.http.scaladsl.model.{HttpResponse, StatusCodes}
+import akka.http.scaladsl.model.headers.{ETag, RawHeader, `Remote-Address`, `X-Forwarded-For`}
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity, HttpResponse, RemoteAddress, StatusCode, StatusCodes}
 import akka.http.scaladsl.server.Directives._
+import akka.http.scaladsl.server.{Directive0, Directive1, ExceptionHandler, Route}
 import akka.stream.ActorMaterializer
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
 import org.bytabit.ft.arbitrator.ArbitratorManager
 import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.util.Config
 import org.joda.time.DateTime
 
 import scala.concurrent.Future
+import scala.concurrent.duration.FiniteDuration
+
+object EventServerHttpProtocol {
+
+  // a post rejected by another server's admission control, answered with the same status and Retry-After
+
+  final case class PostRejected(status: StatusCode, retryAfter: Option[String])
+    extends Exception(s"Post rejected with $status")
+
+  // the connection's address, or the address a trusted follower forwarded the post for, other clients
+  // could send any X-Forwarded-For or X-Real-Ip
+
+  def clientAddress(remote: RemoteAddress, forwarded: Seq[RemoteAddress], trusted: Set[String]): RemoteAddress =
+    if (remote.toOption.exists(a => trusted.contains(a.getHostAddress))) forwarded.headOption.getOrElse(remote)
+    else remote
+}
 
 trait EventServerHttpProtocol extends EventServerJsonProtocol {
 
@@ -34,15 +57,38 @@ trait EventServerHttpProtocol extends EventServerJsonProtocol {
 
   implicit val materializer: ActorMaterializer
 
-  val bindingFuture: Future[Http.ServerBinding]
-
   val log: LoggingAdapter
 
-  def getPostedEvents(since: Option[DateTime]): PostedEvents
+  def getPostedEvents(since: Option[DateTime]): SerializedPostedEvents
+
+  def getPostedEventsAfter(after: Option[Long], limit: Int, filter: PostedEventsFilter): SerializedPostedEvents
+
+  def postedEventsVersion: Long
+
+  def getState(filter: PostedEventsFilter): SerializedPostedEvents
+
+  // market stats summary and the version it was written for
+
+  def getStats: (Long, ByteString)
+
+  // metrics in prometheus text format
+
+  val metrics: ServerMetrics
 
-  def postTradeEvent(tradeEvent: TradeProcess.PostedEvent): Future[TradeProcess.PostedEvent]
+  def metricsText: String
 
-  def postArbitratorEvent(arbitratorEvent: ArbitratorManager.PostedEvent): Future[ArbitratorManager.PostedEvent]
+  def streamPostedEvents(after: Option[Long], filter: PostedEventsFilter): Source[ByteString, Unit]
+
+  def getArchivedTradeEvents(id: UUID): Future[Option[Seq[ByteString]]]
+
+  // nonce is the client's Idempotency-Key header, a repeated post with the same nonce isn't posted again,
+  // client is the address posts are admitted for
+
+  def postTradeEvent(tradeEvent: TradeProcess.PostedEvent, nonce: Option[String],
+                     client: RemoteAddress): Future[TradeProcess.PostedEvent]
+
+  def postArbitratorEvent(arbitratorEvent: ArbitratorManager.PostedEvent,
+                          client: RemoteAddress): Future[ArbitratorManager.PostedEvent]
 
   def binding(localAddress: String, localPort: Int) = Http().bindAndHandle(route, localAddress, localPort)
 
@@ -57,35 +103,179 @@ trait EventServerHttpProtocol extends EventServerJsonProtocol {
       None
   }
 
+  // entity tag is the version of the event data and the filter, only given when a response includes
+  // all events matching the filter up to that version, so a client that sends it back with the same
+  // filter is caught up unless there are new events, it's weak because the same events may be sent
+  // with different content encodings
+
+  def versionTag(version: Long, filter: PostedEventsFilter = PostedEventsFilter()) =
+    ETag(s"$version${filter.query}", weak = true)
+
+  def notModified(ifNoneMatch: Option[String], filter: PostedEventsFilter): Boolean =
+    ifNoneMatch.exists(_ == versionTag(postedEventsVersion, filter).value)
+
+  // stats of a version, not a tag of events
+
+  def statsTag(version: Long) = ETag(s"stats-$version", weak = true)
+
+  // admission control for posted events, rejected posts get 429 or 503 with Retry-After in seconds
+
+  val admission = new Admission(Config.serverPostMaxInFlight, Config.serverPostRateLimit, Config.serverPostRateBurst,
+    Config.serverPostRetryAfter)
+
+  def retryAfter(status: StatusCode, wait: FiniteDuration) =
+    HttpResponse(status, headers = List(RawHeader("Retry-After", Math.max(1, wait.toSeconds).toString)))
+
+  val postRejected = ExceptionHandler {
+    case EventServerHttpProtocol.PostRejected(status, wait) =>
+      complete(HttpResponse(status, headers = wait.map(RawHeader("Retry-After", _)).toList))
+  }
+
+  val clientIP: Directive1[RemoteAddress] =
+    (optionalHeaderValueByType[`Remote-Address`]() & optionalHeaderValueByType[`X-Forwarded-For`]()).tmap {
+      case (remote, forwarded) =>
+        EventServerHttpProtocol.clientAddress(remote.map(_.address).getOrElse(RemoteAddress.Unknown),
+          forwarded.toSeq.flatMap(_.addresses), Config.serverTrustedFollowers)
+    }
+
+  def admit(post: RemoteAddress => Route): Route = clientIP { ip =>
+    admission.admit(ip.toOption.map(_.getHostAddress).getOrElse("unknown")) match {
+      case Admission.Admitted =>
+        mapRouteResultFuture(_.andThen { case _ => admission.done() }(system.dispatcher)) {
+          handleExceptions(postRejected)(post(ip))
+        }
+      case Admission.RateLimited(wait) =>
+        complete(retryAfter(StatusCodes.TooManyRequests, wait))
+      case Admission.Overloaded(wait) =>
+        complete(retryAfter(StatusCodes.ServiceUnavailable, wait))
+    }
+  }
+
+  // request latency per route, until the response is ready or for streams until it starts
+
+  def timed(name: String): Directive0 = mapInnerRoute { r => ctx =>
+    val start = System.nanoTime()
+    r(ctx).andThen { case _ => metrics.request(name, System.nanoTime() - start) }(system.dispatcher)
+  }
+
   val route = {
+    // responses are compressed if the client accepts gzip or deflate, except the events stream where
+    // each chunk is too small to be worth it
+
     pathPrefix("events") {
       pathEnd {
-        get {
-          parameter("since".?) { sinceParam =>
-            val since = dateParam(sinceParam)
+        (get & encodeResponse & timed("events")) {
+          parameters("since".?, "after".as[Long].?, "limit".as[Int].?,
+            "id".?, "currency".?, "paymentMethod".?, "event".?) { (sinceParam, after, limit, id, currency, paymentMethod, event) =>
+            optionalHeaderValueByName("If-None-Match") { ifNoneMatch =>
+              val filter = PostedEventsFilter(id, currency, paymentMethod, event)
+              val since = dateParam(sinceParam)
+              val pageLimit = limit.map(l => Math.max(1, Math.min(l, Config.serverEventsPageLimit)))
+                .getOrElse(Config.serverEventsPageLimit)
+              complete {
+                // only a request continuing from the tag's version is caught up
+                if (after.getOrElse(0L) == postedEventsVersion && notModified(ifNoneMatch, filter))
+                  HttpResponse(StatusCodes.NotModified)
+                else {
+                  // since without a cursor is only used by clients from before paging was added
+                  val spe = (since, after) match {
+                    case (Some(s), None) => getPostedEvents(since)
+                    case _ => getPostedEventsAfter(after, pageLimit, filter)
+                  }
+                  val tag = if (spe.caughtUp) List(versionTag(spe.version, filter)) else Nil
+                  if (spe.isEmpty) HttpResponse(StatusCodes.NoContent, headers = tag)
+                  else HttpResponse(StatusCodes.OK, headers = tag,
+                    entity = HttpEntity(ContentTypes.`application/json`, spe.toByteString))
+                }
+              }
+            }
+          }
+        }
+      } ~
+        path("stream") {
+          (get & timed("events_stream")) {
+            parameters("after".as[Long].?, "id".?, "currency".?, "paymentMethod".?, "event".?) {
+              (after, id, currency, paymentMethod, event) =>
+                // newline delimited PostedEvents, empty lines are heartbeats
+                complete {
+                  HttpResponse(entity = HttpEntity.Chunked.fromData(ContentTypes.`application/json`,
+                    streamPostedEvents(after, PostedEventsFilter(id, currency, paymentMethod, event))))
+                }
+            }
+          }
+        } ~
+        path("archive" / JavaUUID) { id =>
+          (get & encodeResponse & timed("events_archive")) {
+            // posted events of a compacted trade, read from the trade archive on demand
             complete {
-              val pae = getPostedEvents(since)
-              if (pae.arbitratorEvents.nonEmpty || pae.tradeEvents.nonEmpty) pae
-              else HttpResponse(StatusCodes.NoContent)
+              getArchivedTradeEvents(id).map {
+                case Some(tes) =>
+                  HttpResponse(entity = HttpEntity(ContentTypes.`application/json`,
+                    SerializedPostedEvents(Seq(), tes, None, 0).toByteString))
+                case None =>
+                  HttpResponse(StatusCodes.NotFound)
+              }(system.dispatcher)
             }
           }
         }
-      }
     } ~
-      path("trade") {
-        post {
-          entity(as[TradeProcess.PostedEvent]) { te =>
+      path("state") {
+        (get & encodeResponse & timed("state")) {
+          parameters("id".?, "currency".?, "paymentMethod".?, "event".?) { (id, currency, paymentMethod, event) =>
+            optionalHeaderValueByName("If-None-Match") { ifNoneMatch =>
+              // current state with the cursor it corresponds to, clients continue with events after the cursor
+              val filter = PostedEventsFilter(id, currency, paymentMethod, event)
+              complete {
+                if (notModified(ifNoneMatch, filter)) HttpResponse(StatusCodes.NotModified)
+                else {
+                  val spe = getState(filter)
+                  if (spe.isEmpty) HttpResponse(StatusCodes.NoContent, headers = List(versionTag(spe.version, filter)))
+                  else HttpResponse(StatusCodes.OK, headers = List(versionTag(spe.version, filter)),
+                    entity = HttpEntity(ContentTypes.`application/json`, spe.toByteString))
+                }
+              }
+            }
+          }
+        }
+      } ~
+      path("stats") {
+        (get & encodeResponse & timed("stats")) {
+          optionalHeaderValueByName("If-None-Match") { ifNoneMatch =>
+            // market statistics kept as events are posted, written once for each version
             complete {
-              postTradeEvent(te)
+              val (version, stats) = getStats
+              if (ifNoneMatch.contains(statsTag(version).value)) HttpResponse(StatusCodes.NotModified)
+              else HttpResponse(StatusCodes.OK, headers = List(statsTag(version)),
+                entity = HttpEntity(ContentTypes.`application/json`, stats))
+            }
+          }
+        }
+      } ~
+      path("metrics") {
+        (get & timed("metrics")) {
+          complete {
+            HttpEntity(ContentTypes.`text/plain(UTF-8)`, metricsText)
+          }
+        }
+      } ~
+      path("trade") {
+        (post & encodeResponse & timed("trade")) {
+          (entity(as[TradeProcess.PostedEvent]) & optionalHeaderValueByName("Idempotency-Key")) { (te, nonce) =>
+            admit { client =>
+              complete {
+                postTradeEvent(te, nonce, client)
+              }
             }
           }
         }
       } ~
       path("arbitrator") {
-        post {
+        (post & encodeResponse & timed("arbitrator")) {
           entity(as[ArbitratorManager.PostedEvent]) { ae =>
-            complete {
-              postArbitratorEvent(ae)
+            admit { client =>
+              complete {
+                postArbitratorEvent(ae, client)
+              }
             }
           }
         }
@@ -16,19 +16,120 @@
 
 package org.bytabit.ft.server
 
+import java.util.UUID
+
+import akka.util.ByteString
+import org.bytabit.ft.arbitrator.ArbitratorManager
 import org.bytabit.ft.client.EventClientJsonProtocol
-import org.bytabit.ft.server.EventServer.{ArbitratorEventPosted, TradeEventPosted}
-import org.bytabit.ft.util.EventJsonFormat
+import org.bytabit.ft.server.EventServer.{ArbitratorEventPosted, CompactedTrade, Data, TradeEventPosted, TradesCompacted}
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.Contract
+import org.bytabit.ft.util.{Config, EventJsonFormat, Posted}
+import org.bytabit.ft.wallet.model.Arbitrator
+import org.joda.time.DateTime
+import spray.json._
 
 trait EventServerJsonProtocol extends EventClientJsonProtocol {
 
-  implicit def arbitratorEventPostedJsonFormat = jsonFormat1(ArbitratorEventPosted)
+  implicit def arbitratorEventPostedJsonFormat = jsonFormat2(ArbitratorEventPosted)
+
+  implicit def tradeEventPostedJsonFormat = jsonFormat3(TradeEventPosted)
+
+  implicit def compactedTradeJsonFormat = jsonFormat(CompactedTrade.apply(_: UUID, _: Int, _: Long, _: String, _: DateTime),
+    "id", "events", "lastSeq", "lastEvent", "lastPosted")
 
-  implicit def tradeEventPostedJsonFormat = jsonFormat1(TradeEventPosted)
+  implicit def tradesCompactedJsonFormat = jsonFormat2(TradesCompacted)
 
-  implicit def arbitratorServerManagerEventJsonFormat = new EventJsonFormat[EventServer.Event](
+  implicit lazy val arbitratorServerManagerEventJsonFormat = new EventJsonFormat[EventServer.Event](
     Map(simpleName(classOf[ArbitratorEventPosted]) -> arbitratorEventPostedJsonFormat,
-      simpleName(classOf[TradeEventPosted]) -> tradeEventPostedJsonFormat)
+      simpleName(classOf[TradeEventPosted]) -> tradeEventPostedJsonFormat,
+      simpleName(classOf[TradesCompacted]) -> tradesCompactedJsonFormat)
   )
 
+  // snapshot, events read back are served with the same json as posted events, ie. offers refer to their
+  // contract by id if write-contract-ids is on
+
+  implicit def postedEventLogJsonFormat[E <: Posted](implicit eventFormat: JsonFormat[E]): RootJsonFormat[PostedEventLog[E]] =
+    new RootJsonFormat[PostedEventLog[E]] {
+
+      def served(event: E): ByteString = event match {
+        case ae: ArbitratorManager.PostedEvent => PostedEventJson(ae)
+        case te: TradeProcess.PostedEvent => PostedEventJson(te)
+        case _ => ByteString(eventFormat.write(event).compactPrint)
+      }
+
+      override def read(json: JsValue): PostedEventLog[E] = json match {
+        case JsArray(entries) =>
+          entries.foldLeft(PostedEventLog[E]()) { (log, entry) =>
+            entry.asJsObject.getFields("seq", "event") match {
+              case Seq(JsNumber(seq), event) =>
+                val e = eventFormat.read(event)
+                log.append(seq.toLong, e, served(e))
+              case _ => deserializationError("PostedEventLog entry expected")
+            }
+          }
+        case _ =>
+          deserializationError("PostedEventLog expected")
+      }
+
+      override def write(log: PostedEventLog[E]): JsValue =
+        JsArray(log.entries.map(e => JsObject("seq" -> JsNumber(e.seq), "event" -> eventFormat.write(e.event))))
+    }
+
+  implicit def openOfferJsonFormat = jsonFormat3(MarketStats.OpenOffer)
+
+  implicit def marketStatsBucketJsonFormat = jsonFormat(
+    MarketStats.Bucket.apply(_: Long, _: Int, _: BigDecimal, _: BigDecimal, _: BigDecimal, _: BigDecimal, _: BigDecimal),
+    "start", "trades", "fiatVolume", "btcVolume", "low", "high", "last")
+
+  // bucket size and count aren't written, they're configured
+
+  implicit def marketStatsJsonFormat = jsonFormat(
+    (o: Map[UUID, MarketStats.OpenOffer], b: Map[String, Vector[MarketStats.Bucket]]) => MarketStats(o, b), "open", "buckets")
+
+  // idempotency keys are written with the sequence number of their posted trade event and read
+  // back from the posted trade events, keys of events removed since aren't kept
+
+  def postKeysJson(d: PostedEventDedup): JsValue =
+    JsArray(d.entries.toVector.map { case (k, e) => JsObject("key" -> JsString(k), "seq" -> JsNumber(e.seq.get)) })
+
+  def postKeys(json: Option[JsValue], tes: PostedEventLog[TradeProcess.PostedEvent]): PostedEventDedup = json match {
+    case Some(JsArray(keys)) =>
+      keys.foldLeft(PostedEventDedup(Config.serverPostDedupKeys)) { (d, k) =>
+        k.asJsObject.getFields("key", "seq") match {
+          case Seq(JsString(key), JsNumber(seq)) =>
+            tes.entry(seq.toLong).fold(d)(e => d.added(key, TradeEventPosted(e.event, Some(e.seq), Some(key))))
+          case _ => deserializationError("idempotency key expected")
+        }
+      }
+    case _ =>
+      PostedEventDedup(Config.serverPostDedupKeys)
+  }
+
+  // the trade event index isn't written, it's rebuilt from the posted trade events, market stats are
+  // rebuilt from them too if the snapshot was saved before stats were kept
+
+  implicit def eventServerDataJsonFormat = new RootJsonFormat[Data] {
+
+    val format = jsonFormat(
+      (a: Option[Arbitrator], c: Seq[Contract], aes: PostedEventLog[ArbitratorManager.PostedEvent],
+       tes: PostedEventLog[TradeProcess.PostedEvent], lastSeq: Long, cts: Map[UUID, CompactedTrade], ms: MarketStats) =>
+        Data(a, c, aes, tes, lastSeq, cts, ms, TradeEventIndex(tes)),
+      "arbitrator", "contract", "postedArbitratorEvents", "postedTradeEvents", "lastSeq", "compactedTrades", "marketStats")
+
+    override def read(json: JsValue): Data = {
+      val d = json.asJsObject match {
+        case o if o.fields.contains("marketStats") =>
+          format.read(o)
+        case o =>
+          val d = format.read(JsObject(o.fields + ("marketStats" -> MarketStats().toJson)))
+          d.copy(marketStats = MarketStats(d.postedTradeEvents))
+      }
+      d.copy(postKeys = postKeys(json.asJsObject.fields.get("postKeys"), d.postedTradeEvents))
+    }
+
+    override def write(d: Data): JsValue =
+      JsObject(format.write(d).asJsObject.fields + ("postKeys" -> postKeysJson(d.postKeys)))
+  }
+
 }
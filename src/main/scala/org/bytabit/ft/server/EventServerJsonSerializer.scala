@@ -27,15 +27,19 @@ class EventServerJsonSerializer(override val system: ExtendedActorSystem)
   override val identifier = hashId(this.getClass.getSimpleName)
 
   override def fromBinary(bytes: Array[Byte], manifest: Option[Class[_]]): AnyRef = manifest match {
+    case Some(clazz: Class[_]) if clazz == classOf[EventServer.Data] =>
+      bytesToJson(bytes).convertTo[EventServer.Data]
     case Some(clazz: Class[_]) =>
-      bytesToString(bytes).parseJson.convertTo[EventServer.Event]
+      bytesToJson(bytes).convertTo[EventServer.Event]
     case _ ⇒
       throw new IllegalArgumentException("No manifest found")
   }
 
   override def toBinary(obj: AnyRef) = obj match {
     case o: EventServer.Event =>
-      stringToBytes(o.toJson.toString())
+      jsonToBytes(o.toJson)
+    case d: EventServer.Data =>
+      jsonToBytes(d.toJson)
     case _ =>
       throw new IllegalArgumentException("Wrong type found")
   }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.math.MathContext
+import java.util.UUID
+
+import akka.util.ByteString
+import org.bytabit.ft.server.MarketStats._
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.util.Config
+import org.joda.time.DateTime
+import org.joda.time.format.ISODateTimeFormat
+import spray.json._
+
+object MarketStats {
+
+  // an offer waiting to be taken
+
+  final case class OpenOffer(market: String, fiatAmount: BigDecimal, btcAmount: BigDecimal)
+
+  // offers taken in the bucket starting at start, rates are fiat per btc
+
+  final case class Bucket(start: Long, trades: Int, fiatVolume: BigDecimal, btcVolume: BigDecimal,
+                          low: BigDecimal, high: BigDecimal, last: BigDecimal) {
+
+    def traded(fiatAmount: BigDecimal, btcAmount: BigDecimal): Bucket = {
+      val r = rate(fiatAmount, btcAmount)
+      this.copy(trades = trades + 1, fiatVolume = fiatVolume + fiatAmount, btcVolume = btcVolume + btcAmount,
+        low = low.min(r), high = high.max(r), last = r)
+    }
+  }
+
+  object Bucket {
+
+    def apply(start: Long, fiatAmount: BigDecimal, btcAmount: BigDecimal): Bucket = {
+      val r = rate(fiatAmount, btcAmount)
+      Bucket(start, 1, fiatAmount, btcAmount, r, r, r)
+    }
+  }
+
+  def rate(fiatAmount: BigDecimal, btcAmount: BigDecimal): BigDecimal =
+    if (btcAmount.signum == 0) BigDecimal(0)
+    else BigDecimal(fiatAmount.bigDecimal.divide(btcAmount.bigDecimal, MathContext.DECIMAL64))
+
+  // markets are a fiat currency and payment method
+
+  def market(currency: String, paymentMethod: String) = s"$currency/$paymentMethod"
+
+  // rebuilt from posted trade events if a snapshot was saved before stats were kept
+
+  def apply(log: PostedEventLog[TradeProcess.PostedEvent]): MarketStats =
+    log.entries.foldLeft(MarketStats())((s, e) => s.eventPosted(e.event))
+
+  val dateTimeFormatter = ISODateTimeFormat.dateTime.withZoneUTC
+}
+
+// market statistics kept as trade events are posted, offers open per market and volume and rates of
+// taken offers per market in time buckets of bucketMillis, only the latest maxBuckets are kept
+
+final case class MarketStats(open: Map[UUID, OpenOffer] = Map(), buckets: Map[String, Vector[Bucket]] = Map(),
+                             bucketMillis: Long = Config.serverStatsBucket.toMillis,
+                             maxBuckets: Int = Config.serverStatsBuckets) {
+
+  def eventPosted(event: TradeProcess.PostedEvent): MarketStats = event match {
+    case co: TradeProcess.BtcBuyerCreatedOffer =>
+      val o = co.offer.offer
+      this.copy(open = open + (co.id -> OpenOffer(market(o.contract.fiatCurrencyUnit.getCode, o.contract.paymentMethod.name),
+        BigDecimal(o.fiatAmount.getAmount), BigDecimal(o.btcAmount.getAmount))))
+    case cn: TradeProcess.BtcBuyerCanceledOffer =>
+      this.copy(open = open - cn.id)
+    case to: TradeProcess.BtcSellerTookOffer =>
+      open.get(to.id).map(o => traded(o, to.posted.getOrElse(DateTime.now)).copy(open = open - to.id)).getOrElse(this)
+    case _ =>
+      this
+  }
+
+  def traded(o: OpenOffer, posted: DateTime): MarketStats = {
+    val start = posted.getMillis / bucketMillis * bucketMillis
+    val bs = buckets.getOrElse(o.market, Vector())
+    val updated = bs.lastOption match {
+      case Some(b) if b.start == start => bs.init :+ b.traded(o.fiatAmount, o.btcAmount)
+      case _ => bs :+ Bucket(start, o.fiatAmount, o.btcAmount)
+    }
+    this.copy(buckets = buckets + (o.market -> updated.takeRight(maxBuckets)))
+  }
+
+  // /stats response, written once for each version of the stats
+
+  lazy val summary: ByteString = {
+    val offers = open.values.groupBy(_.market)
+    val markets = (offers.keySet ++ buckets.keySet).toSeq.sorted.map { m =>
+      val os = offers.getOrElse(m, Seq())
+      JsObject(
+        "market" -> JsString(m),
+        "openOffers" -> JsNumber(os.size),
+        "openFiatAmount" -> JsNumber(os.map(_.fiatAmount).sum),
+        "openBtcAmount" -> JsNumber(os.map(_.btcAmount).sum),
+        "buckets" -> JsArray(buckets.getOrElse(m, Vector()).map { b =>
+          JsObject("start" -> JsString(dateTimeFormatter.print(b.start)), "trades" -> JsNumber(b.trades),
+            "fiatVolume" -> JsNumber(b.fiatVolume), "btcVolume" -> JsNumber(b.btcVolume),
+            "low" -> JsNumber(b.low), "high" -> JsNumber(b.high), "last" -> JsNumber(b.last))
+        }))
+    }
+    ByteString(JsObject("markets" -> JsArray(markets.toVector)).compactPrint)
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import org.bytabit.ft.server.EventServer.TradeEventPosted
+import org.bytabit.ft.trade.TradeProcess
+
+import scala.collection.immutable.Queue
+
+object PostedEventDedup {
+
+  // a repeated post has the same trade id, event type and client nonce
+
+  def key(te: TradeProcess.PostedEvent, nonce: String): String =
+    s"${te.id}:${te.getClass.getSimpleName}:$nonce"
+}
+
+// posted trade events by idempotency key, the least recently posted keys are dropped once there are
+// more than maxKeys, a key posted again is the most recently posted
+
+final case class PostedEventDedup(maxKeys: Int, posted: Map[String, TradeEventPosted] = Map(),
+                                  keys: Queue[String] = Queue()) {
+
+  def get(key: String): Option[TradeEventPosted] = posted.get(key)
+
+  def added(key: String, evt: TradeEventPosted): PostedEventDedup =
+    if (posted.contains(key)) this.copy(posted = posted + (key -> evt), keys = keys.filterNot(_ == key).enqueue(key))
+    else {
+      val (p, k) = if (keys.size >= maxKeys) {
+        val (oldest, rest) = keys.dequeue
+        (posted - oldest, rest)
+      } else (posted, keys)
+      this.copy(posted = p + (key -> evt), keys = k.enqueue(key))
+    }
+
+  def removed(key: String): PostedEventDedup =
+    this.copy(posted = posted - key, keys = keys.filterNot(_ == key))
+
+  // keys of events that are kept, in the order they were posted
+
+  def filter(f: TradeEventPosted => Boolean): PostedEventDedup = {
+    val p = posted.filter { case (k, e) => f(e) }
+    if (p.size == posted.size) this else this.copy(posted = p, keys = keys.filter(p.contains))
+  }
+
+  def entries: Seq[(String, TradeEventPosted)] = keys.map(k => k -> posted(k))
+
+  def size: Int = posted.size
+}
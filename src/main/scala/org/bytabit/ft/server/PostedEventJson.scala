@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import akka.util.ByteString
+import org.bytabit.ft.arbitrator.ArbitratorManager
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.util.Config
+import spray.json._
+
+// json of posted events as served by /events and /state, offers refer to their contract by id if
+// write-contract-ids is on, journals and snapshots are written by the serializers with the whole contract
+
+object PostedEventJson extends EventServerJsonProtocol {
+
+  override def writeContractIds: Boolean = Config.writeContractIds
+
+  def apply(ae: ArbitratorManager.PostedEvent): ByteString = ByteString(ae.toJson.compactPrint)
+
+  def apply(te: TradeProcess.PostedEvent): ByteString = ByteString(te.toJson.compactPrint)
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import akka.util.ByteString
+import org.bytabit.ft.server.PostedEventLog.Entry
+import org.bytabit.ft.util.{DateTimeOrdering, Posted}
+import org.joda.time.DateTime
+
+import scala.annotation.tailrec
+
+object PostedEventLog {
+
+  // latest posted time of this and all earlier entries, used as the since search key, and the
+  // event serialized once as json when it was appended
+
+  final case class Entry[E <: Posted](seq: Long, event: E, latestPosted: DateTime, json: ByteString)
+
+}
+
+// append only log of posted events, ordered by server assigned sequence number, with running totals of
+// the json size and count of each event type
+
+final case class PostedEventLog[E <: Posted](entries: Vector[Entry[E]] = Vector(), jsonBytes: Long = 0,
+                                              eventCounts: Map[String, Int] = Map()) {
+
+  def size: Int = entries.size
+
+  def isEmpty: Boolean = entries.isEmpty
+
+  def events: Seq[E] = entries.map(_.event)
+
+  def lastSeq: Option[Long] = entries.lastOption.map(_.seq)
+
+  def latestPosted: Option[DateTime] = entries.lastOption.map(_.latestPosted)
+
+  // vector append is effectively constant time
+
+  def append(seq: Long, event: E, json: ByteString): PostedEventLog[E] = {
+    assert(event.posted.isDefined)
+    assert(lastSeq.forall(_ < seq))
+    val lp = (latestPosted.toSeq :+ event.posted.get).reduce(DateTimeOrdering.max)
+    val name = event.getClass.getSimpleName
+    this.copy(entries = entries :+ Entry(seq, event, lp, json), jsonBytes = jsonBytes + json.length,
+      eventCounts = eventCounts.updated(name, eventCounts.getOrElse(name, 0) + 1))
+  }
+
+  // removed entries keep the latest posted time of later entries, it stays ordered and only
+  // means a since search may filter a few more entries
+
+  def filterNot(p: Entry[E] => Boolean): PostedEventLog[E] = {
+    val (removed, kept) = entries.partition(p)
+    val counts = removed.groupBy(_.event.getClass.getSimpleName).foldLeft(eventCounts) { case (cs, (name, es)) =>
+      val n = cs.getOrElse(name, 0) - es.size
+      if (n > 0) cs.updated(name, n) else cs - name
+    }
+    this.copy(entries = kept, jsonBytes = jsonBytes - removed.iterator.map(_.json.length.toLong).sum, eventCounts = counts)
+  }
+
+  // binary search for the first entry matching a predicate that holds for all later entries, O(log n)
+
+  private def search(after: Entry[E] => Boolean): Int = {
+
+    @tailrec
+    def loop(low: Int, high: Int): Int =
+      if (low >= high) low
+      else {
+        val mid = (low + high) >>> 1
+        if (after(entries(mid))) loop(low, mid)
+        else loop(mid + 1, high)
+      }
+
+    loop(0, entries.size)
+  }
+
+  def indexAfter(since: DateTime): Int = search(_.latestPosted.isAfter(since))
+
+  def indexAfterSeq(seq: Long): Int = search(_.seq > seq)
+
+  // entries before the found index were all posted before since, later entries are only
+  // filtered in case they were posted out of order (ie. from an older journal)
+
+  def entriesPostedAfter(since: Option[DateTime]): Vector[Entry[E]] = since match {
+    case Some(s: DateTime) =>
+      entries.drop(indexAfter(s)).filter(_.event.posted.get.isAfter(s))
+    case None =>
+      entries
+  }
+
+  def postedAfter(since: Option[DateTime]): Seq[E] = entriesPostedAfter(since).map(_.event)
+
+  def entry(seq: Long): Option[Entry[E]] =
+    entries.lift(indexAfterSeq(seq - 1)).filter(_.seq == seq)
+
+  def entriesAfter(after: Option[Long], limit: Int): Vector[Entry[E]] = {
+    val from = after.map(indexAfterSeq).getOrElse(0)
+    entries.slice(from, from + limit)
+  }
+}
@@ -16,13 +16,56 @@
 
 package org.bytabit.ft.server
 
+import akka.util.{ByteString, ByteStringBuilder}
 import org.bytabit.ft.arbitrator.ArbitratorManager
 import org.bytabit.ft.trade.TradeProcess
 import org.bytabit.ft.util.DateTimeOrdering
 
 final case class PostedEvents(arbitratorEvents: Seq[ArbitratorManager.PostedEvent],
-                              tradeEvents: Seq[TradeProcess.PostedEvent]) {
+                              tradeEvents: Seq[TradeProcess.PostedEvent],
+                              cursor: Option[Long] = None) {
 
   val latestUpdate = (arbitratorEvents.flatMap(_.posted) ++ tradeEvents.flatMap(_.posted))
     .reduceOption(DateTimeOrdering.max)
-}
\ No newline at end of file
+}
+
+object SerializedPostedEvents {
+
+  val arbitratorEventsStart = ByteString("{\"arbitratorEvents\":[")
+  val tradeEventsStart = ByteString("],\"tradeEvents\":[")
+  val comma = ByteString(",")
+  val end = ByteString("]}")
+
+  def cursorEnd(cursor: Long) = ByteString(s"""],"cursor":$cursor}""")
+}
+
+// posted events already serialized as json, written as a PostedEvents json object without
+// building the json again, version is the last sequence number of the data they were read from
+
+final case class SerializedPostedEvents(arbitratorEvents: Seq[ByteString], tradeEvents: Seq[ByteString],
+                                        cursor: Option[Long], version: Long) {
+
+  import SerializedPostedEvents._
+
+  def isEmpty: Boolean = arbitratorEvents.isEmpty && tradeEvents.isEmpty
+
+  // includes all events up to version
+
+  def caughtUp: Boolean = cursor.forall(_ >= version)
+
+  def toByteString: ByteString = {
+    val b = ByteString.newBuilder
+    b.append(arbitratorEventsStart)
+    appendAll(b, arbitratorEvents)
+    b.append(tradeEventsStart)
+    appendAll(b, tradeEvents)
+    b.append(cursor.map(cursorEnd).getOrElse(end))
+    b.result()
+  }
+
+  private def appendAll(b: ByteStringBuilder, events: Seq[ByteString]): Unit =
+    events.zipWithIndex.foreach { case (e, i) =>
+      if (i > 0) b.append(comma)
+      b.append(e)
+    }
+}
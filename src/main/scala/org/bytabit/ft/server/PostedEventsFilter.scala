@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.UUID
+
+import scala.util.Try
+
+object PostedEventsFilter {
+
+  // comma separated query parameter values
+
+  def values(param: Option[String]): Set[String] =
+    param.map(_.split(',').map(_.trim).filter(_.nonEmpty).toSet).getOrElse(Set())
+
+  def apply(id: Option[String], currency: Option[String], paymentMethod: Option[String],
+            event: Option[String]): PostedEventsFilter =
+    PostedEventsFilter(values(id).flatMap(i => Try(UUID.fromString(i)).toOption), values(currency),
+      values(paymentMethod), values(event))
+}
+
+// trade events wanted by a client, an empty set doesn't filter, arbitrator events are never filtered
+
+final case class PostedEventsFilter(ids: Set[UUID] = Set(), currencyUnits: Set[String] = Set(),
+                                    paymentMethods: Set[String] = Set(), events: Set[String] = Set()) {
+
+  def isEmpty: Boolean = ids.isEmpty && currencyUnits.isEmpty && paymentMethods.isEmpty && events.isEmpty
+
+  def sortedValues: Seq[(String, Seq[String])] =
+    Seq("id" -> ids.map(_.toString), "currency" -> currencyUnits, "paymentMethod" -> paymentMethods, "event" -> events)
+      .filter(_._2.nonEmpty)
+      .map { case (p, vs) => p -> vs.toSeq.sorted }
+
+  // query parameters with comma separated values
+
+  def params: Seq[(String, String)] = sortedValues.map { case (p, vs) => p -> vs.mkString(",") }
+
+  def query: String =
+    sortedValues.map { case (p, vs) => s"&$p=${vs.map(java.net.URLEncoder.encode(_, "UTF-8")).mkString(",")}" }.mkString
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import akka.actor.{Actor, ActorRef, Status}
+import akka.stream.OverflowStrategy
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
+import org.bytabit.ft.server.EventServer._
+import org.bytabit.ft.util.Config
+
+// sends posted events to streaming subscribers, used by the event server and its followers
+
+trait PostedEventsPublisher {
+  this: Actor =>
+
+  private var subscribers = Map[ActorRef, PostedEventsFilter]()
+
+  val newline = ByteString("\n")
+
+  // each subscriber gets events after its cursor followed by new events as they are applied,
+  // a subscriber that can't keep up overflows its buffer and has to reconnect from its cursor
+
+  def streamPostedEvents(after: Option[Long], filter: PostedEventsFilter): Source[ByteString, Unit] =
+    Source.actorRef[SerializedPostedEvents](Config.serverEventsPageLimit + Config.serverEventsStreamBuffer, OverflowStrategy.fail)
+      .mapMaterializedValue(ref => self ! SubscribePostedEvents(ref, after, filter))
+      .map {
+        case spe if spe.isEmpty => newline
+        case spe => spe.toByteString ++ newline
+      }
+
+  def subscribe(ref: ActorRef, after: Option[Long], filter: PostedEventsFilter, data: Data): Unit = {
+    val pes = data.postedEventsStream(after, Config.serverEventsPageLimit, filter)
+    pes.foreach(ref ! _)
+    // too far behind to stream, complete so subscriber can page through the rest
+    if (pes.size >= Config.serverEventsPageLimit) ref ! Status.Success("behind")
+    else {
+      context.watch(ref)
+      subscribers = subscribers + (ref -> filter)
+    }
+  }
+
+  def unsubscribe(ref: ActorRef): Unit =
+    subscribers = subscribers - ref
+
+  def sendHeartbeat(data: Data): Unit =
+    subscribers.keys.foreach(_ ! SerializedPostedEvents(Seq(), Seq(), None, data.lastSeq))
+
+  // send an event just applied to data to subscribers whose filter it matches
+
+  def publish(evt: Event, data: Data): Unit = {
+    val spe = evt match {
+      case ArbitratorEventPosted(_, _) =>
+        SerializedPostedEvents(data.postedArbitratorEvents.entries.lastOption.map(_.json).toSeq, Seq(),
+          Some(data.lastSeq), data.lastSeq)
+      case _ =>
+        SerializedPostedEvents(Seq(), data.postedTradeEvents.entries.lastOption.map(_.json).toSeq,
+          Some(data.lastSeq), data.lastSeq)
+    }
+    subscribers.foreach {
+      case (ref, f) => evt match {
+        case TradeEventPosted(te, _, _) if !data.tradeIndex.matches(f, te) =>
+        case _ => ref ! spe
+      }
+    }
+  }
+}
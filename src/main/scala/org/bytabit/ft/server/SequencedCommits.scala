@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+// posted events are persisted out of order by the event server and its trade partitions and applied in
+// sequence order, the watermark is the last sequence number applied, an event that failed to persist is
+// committed without an event and skipped
+
+final case class SequencedCommits[E](watermark: Long = 0, committed: Map[Long, Option[E]] = Map[Long, Option[E]]()) {
+
+  // events applied up to the new watermark in sequence order, an event committed again is ignored
+
+  def commit(seq: Long, evt: Option[E]): (SequencedCommits[E], Vector[(Long, Option[E])]) =
+    if (seq <= watermark || committed.contains(seq)) (this, Vector())
+    else {
+      var c = committed + (seq -> evt)
+      var w = watermark
+      val applied = Vector.newBuilder[(Long, Option[E])]
+      while (c.contains(w + 1)) {
+        w += 1
+        applied += w -> c(w)
+        c -= w
+      }
+      (SequencedCommits(w, c), applied.result())
+    }
+
+  def isCommitted(seq: Long): Boolean = seq <= watermark || committed.contains(seq)
+
+  // committed events waiting for an earlier event
+
+  def waiting: Iterable[E] = committed.values.flatten
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.concurrent.atomic.{AtomicLong, AtomicLongArray}
+
+import org.bytabit.ft.server.ServerMetrics._
+
+object ServerMetrics {
+
+  // histogram bucket upper bounds in seconds
+
+  val bounds: Array[Double] = Array(0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+
+  private val boundsNanos: Array[Long] = bounds.map(b => (b * 1e9).toLong)
+
+  // fixed bucket histogram, recording only increments counters so it can stay on
+
+  final class Histogram {
+
+    private val counts = new AtomicLongArray(bounds.length + 1)
+
+    private val sumNanos = new AtomicLong()
+
+    def record(nanos: Long): Unit = {
+      var i = 0
+      while (i < boundsNanos.length && nanos > boundsNanos(i)) i += 1
+      counts.incrementAndGet(i)
+      sumNanos.addAndGet(nanos)
+    }
+
+    def recordMillis(millis: Long): Unit = record(millis * 1000000)
+
+    def write(b: StringBuilder, name: String, labels: String): Unit = {
+      var cumulative = 0L
+      var i = 0
+      while (i < bounds.length) {
+        cumulative += counts.get(i)
+        b.append(s"""${name}_bucket{$labels,le="${bounds(i)}"} $cumulative\n""")
+        i += 1
+      }
+      cumulative += counts.get(bounds.length)
+      b.append(s"""${name}_bucket{$labels,le="+Inf"} $cumulative\n""")
+      b.append(s"${name}_sum{$labels} ${sumNanos.get / 1e9}\n")
+      b.append(s"${name}_count{$labels} $cumulative\n")
+    }
+  }
+
+  val routes = Seq("events", "events_stream", "events_archive", "state", "stats", "metrics", "trade", "arbitrator")
+
+  def escape(s: String): String = s.replace("\\", "\\\\").replace("\"", "\\\"")
+
+  // gauges of the events in memory, from totals kept by the posted event logs as events are added and removed
+
+  def dataGauges(d: EventServer.Data): Seq[(String, String, Double)] = {
+    val events = d.postedArbitratorEvents.eventCounts ++ d.postedTradeEvents.eventCounts
+    Seq(("ft_last_seq", "", d.lastSeq.toDouble),
+      ("ft_data_json_bytes", "", (d.postedArbitratorEvents.jsonBytes + d.postedTradeEvents.jsonBytes).toDouble),
+      ("ft_compacted_trades", "", d.compactedTrades.size.toDouble)) ++
+      events.toSeq.sortBy(_._1).map { case (e, n) => ("ft_events", s"""event="$e"""", n.toDouble) }
+  }
+}
+
+// event server metrics in prometheus text format, request latency per route, journal write latency and
+// post to commit latency are recorded as they happen, gauges are set by the event server and read when
+// metrics are requested
+
+class ServerMetrics(arbitrator: String, partitions: Int = 0) {
+
+  val requests: Map[String, Histogram] = routes.map(_ -> new Histogram).toMap
+
+  // journal write of an event, and from its post until it's applied in sequence order
+
+  val persist = new Histogram
+
+  val commit = new Histogram
+
+  // trade events sent to each trade partition and not yet persisted
+
+  val partitionWriting = new AtomicLongArray(partitions)
+
+  val snapshotSaved = new AtomicLong()
+
+  val recoveryMillis = new AtomicLong()
+
+  val inFlight = new AtomicLong()
+
+  val label = s"""arbitrator="${escape(arbitrator)}""""
+
+  def request(route: String, nanos: Long): Unit = requests.get(route).foreach(_.record(nanos))
+
+  // gauges read when metrics are requested, as name, extra labels and value
+
+  def text(gauges: Seq[(String, String, Double)]): String = {
+    val b = new StringBuilder
+    b.append("# TYPE ft_http_request_duration_seconds histogram\n")
+    routes.foreach(r => requests(r).write(b, "ft_http_request_duration_seconds", s"""$label,route="$r""""))
+    b.append("# TYPE ft_persist_duration_seconds histogram\n")
+    persist.write(b, "ft_persist_duration_seconds", label)
+    b.append("# TYPE ft_commit_duration_seconds histogram\n")
+    commit.write(b, "ft_commit_duration_seconds", label)
+    gauges.groupBy(_._1).toSeq.sortBy(_._1).foreach { case (name, gs) =>
+      b.append(s"# TYPE $name gauge\n")
+      gs.foreach { case (_, extra, v) =>
+        b.append(s"$name{$label${if (extra.isEmpty) "" else s",$extra"}} $v\n")
+      }
+    }
+    b.toString()
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.io.{File, FileOutputStream}
+import java.nio.file.Files
+import java.util.UUID
+
+import akka.util.ByteString
+import org.bytabit.ft.util.Config
+
+import scala.util.Try
+
+object TradeArchive {
+
+  val newline = ByteString("\n")
+
+  // each hosted arbitrator archives to its own directory, the arbitrator hosted at / keeps the archive
+  // directory used before more than one could be hosted
+
+  def dir(namespace: String): File =
+    if (namespace.isEmpty) Config.archiveDir else new File(Config.archiveDir, namespace)
+}
+
+// archive of compacted trade events, one file per trade of newline delimited event json
+
+class TradeArchive(val dir: File) {
+
+  import TradeArchive._
+
+  def file(id: UUID): File = new File(dir, s"$id.json")
+
+  // append if the trade was compacted before, otherwise replace any partly written file
+
+  def write(id: UUID, events: Seq[ByteString], append: Boolean): Try[File] = Try {
+    val f = file(id)
+    val out = new FileOutputStream(f, append)
+    try {
+      events.foreach(e => out.write((e ++ newline).toArray))
+      out.getFD.sync()
+    } finally {
+      out.close()
+    }
+    f
+  }
+
+  def read(id: UUID): Try[Option[Seq[ByteString]]] = Try {
+    val f = file(id)
+    if (f.exists) Some(ByteString(Files.readAllBytes(f.toPath)).utf8String.split('\n').filter(_.nonEmpty).map(ByteString(_)).toSeq)
+    else None
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.UUID
+
+import org.bytabit.ft.trade.TradeProcess
+
+import scala.annotation.tailrec
+import scala.collection.immutable.SortedSet
+
+object TradeEventIndex {
+
+  def apply(log: PostedEventLog[TradeProcess.PostedEvent]): TradeEventIndex =
+    log.entries.foldLeft(TradeEventIndex())((i, e) => i.added(e.seq, e.event))
+
+  def eventName(te: TradeProcess.PostedEvent): String = te.getClass.getSimpleName
+
+  def add[K](index: Map[K, SortedSet[Long]], key: K, seq: Long): Map[K, SortedSet[Long]] =
+    index.updated(key, index.getOrElse(key, SortedSet[Long]()) + seq)
+
+  def remove[K](index: Map[K, SortedSet[Long]], key: K, seqs: Set[Long]): Map[K, SortedSet[Long]] =
+    index.get(key).map(_ -- seqs).fold(index)(s => if (s.isEmpty) index - key else index.updated(key, s))
+
+  // first sequence number from the given one in any of the sorted sets, O(sets log n)
+
+  def first(sets: Iterable[SortedSet[Long]], from: Long): Option[Long] =
+    sets.flatMap(_.iteratorFrom(from).take(1)).reduceOption(_ min _)
+}
+
+// secondary indexes of posted trade events by each filter key, updated as events are applied, currency and
+// payment method are only posted with the offer so the other events of a trade are indexed by its offer's
+
+final case class TradeEventIndex(seqsByTrade: Map[UUID, SortedSet[Long]] = Map(),
+                                 seqsByEvent: Map[String, SortedSet[Long]] = Map(),
+                                 seqsByCurrency: Map[String, SortedSet[Long]] = Map(),
+                                 seqsByPaymentMethod: Map[String, SortedSet[Long]] = Map(),
+                                 offers: Map[UUID, (String, String)] = Map()) {
+
+  import TradeEventIndex._
+
+  def added(seq: Long, te: TradeProcess.PostedEvent): TradeEventIndex = {
+    val offer = te match {
+      case TradeProcess.BtcBuyerCreatedOffer(id, bbo, _) =>
+        Some((bbo.contract.fiatCurrencyUnit.getCode, bbo.contract.paymentMethod.name))
+      case _ =>
+        offers.get(te.id)
+    }
+    TradeEventIndex(add(seqsByTrade, te.id, seq), add(seqsByEvent, eventName(te), seq),
+      offer.fold(seqsByCurrency)(o => add(seqsByCurrency, o._1, seq)),
+      offer.fold(seqsByPaymentMethod)(o => add(seqsByPaymentMethod, o._2, seq)),
+      offer.fold(offers)(o => offers.updated(te.id, o)))
+  }
+
+  // only used when trades are compacted so scanning the event index is fine
+
+  def removed(ids: Set[UUID], upToSeq: Long): TradeEventIndex =
+    ids.foldLeft(this) { (i, id) =>
+      val seqs: Set[Long] = i.seqsByTrade.get(id).map(_.until(upToSeq + 1)).getOrElse(SortedSet[Long]())
+      val offer = i.offers.get(id)
+      val trade = remove(i.seqsByTrade, id, seqs)
+      TradeEventIndex(trade, i.seqsByEvent.keys.foldLeft(i.seqsByEvent)(remove(_, _, seqs)),
+        offer.fold(i.seqsByCurrency)(o => remove(i.seqsByCurrency, o._1, seqs)),
+        offer.fold(i.seqsByPaymentMethod)(o => remove(i.seqsByPaymentMethod, o._2, seqs)),
+        if (trade.contains(id)) i.offers else i.offers - id)
+    }
+
+  // indexes of the keys of each filter that is given
+
+  def filterIndexes(f: PostedEventsFilter): Seq[Seq[SortedSet[Long]]] =
+    Seq(f.ids.toSeq.map(seqsByTrade.getOrElse(_, SortedSet[Long]())),
+      f.currencyUnits.toSeq.map(seqsByCurrency.getOrElse(_, SortedSet[Long]())),
+      f.paymentMethods.toSeq.map(seqsByPaymentMethod.getOrElse(_, SortedSet[Long]())),
+      f.events.toSeq.map(seqsByEvent.getOrElse(_, SortedSet[Long]()))).filter(_.nonEmpty)
+
+  // up to limit sequence numbers of matching trade events after the given cursor, in sequence order, found
+  // by seeking each given filter to the next sequence number all of them have, so only the ranges after the
+  // cursor up to the last match are read
+
+  def matching(f: PostedEventsFilter, after: Option[Long], limit: Int): Vector[Long] = {
+    val indexes = filterIndexes(f)
+
+    @tailrec
+    def loop(from: Long, seqs: Vector[Long]): Vector[Long] =
+      if (seqs.size >= limit) seqs
+      else {
+        val next = indexes.map(first(_, from))
+        if (next.exists(_.isEmpty)) seqs
+        else {
+          val seq = next.flatten.max
+          if (seq == from) loop(seq + 1, seqs :+ seq)
+          else loop(seq, seqs)
+        }
+      }
+
+    if (indexes.isEmpty) Vector() else loop(after.getOrElse(0L) + 1, Vector())
+  }
+
+  def matches(f: PostedEventsFilter, te: TradeProcess.PostedEvent): Boolean = {
+    val offer = offers.get(te.id)
+    (f.ids.isEmpty || f.ids.contains(te.id)) &&
+      (f.currencyUnits.isEmpty || offer.exists(o => f.currencyUnits.contains(o._1))) &&
+      (f.paymentMethods.isEmpty || offer.exists(o => f.paymentMethods.contains(o._2))) &&
+      (f.events.isEmpty || f.events.contains(eventName(te)))
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.UUID
+
+import akka.actor.Props
+import akka.event.Logging
+import akka.persistence.{PersistenceFailure, PersistentActor, RecoveryCompleted}
+import akka.util.ByteString
+import org.bytabit.ft.server.EventServer.TradeEventPosted
+import org.bytabit.ft.server.TradePartition._
+
+object TradePartition {
+
+  // actor setup
+
+  def props(server: String, partition: Int) = Props(new TradePartition(server, partition))
+
+  def name(partition: Int) = s"${TradePartition.getClass.getSimpleName}-$partition"
+
+  def persistenceId(server: String, partition: Int) = s"$server-trades-$partition"
+
+  // trades are always written to the same partition, so events of a trade are persisted in order
+
+  def partitionOf(id: UUID, partitions: Int): Int = (id.hashCode & Int.MaxValue) % partitions
+
+  // commands
+
+  sealed trait Command
+
+  final case class PersistTradeEvent(evt: TradeEventPosted) extends Command
+
+  final case class DeleteEventsUpTo(seq: Long) extends Command
+
+  // replies to the event server
+
+  // writeNanos is the journal write latency, recovered events weren't written
+
+  final case class TradeEventPersisted(evt: TradeEventPosted, json: ByteString, writeNanos: Long = 0)
+
+  final case class TradeEventFailed(evt: TradeEventPosted, cause: Throwable)
+
+  final case class PartitionRecovered(partition: Int, events: Vector[TradeEventPersisted])
+
+  // events a restarted partition was persisting, the ones it recovered were persisted and the rest were lost
+
+  def restarted(recovered: Vector[TradeEventPersisted],
+                writing: Vector[TradeEventPosted]): (Vector[TradeEventPersisted], Vector[TradeEventPosted]) = {
+    val seqs = writing.flatMap(_.seq).toSet
+    val persisted = recovered.filter(_.evt.seq.exists(seqs.contains))
+    val persistedSeqs = persisted.flatMap(_.evt.seq).toSet
+    (persisted, writing.filterNot(_.seq.exists(persistedSeqs.contains)).sortBy(_.seq))
+  }
+
+}
+
+// persists trade events for the trades in one partition, events already have their server sequence number,
+// the event server applies them to its data in sequence order once persisted
+//
+// trade events aren't batched by write-batch-size and write-flush-interval, which only batch arbitrator
+// events, they're written as they arrive and the journal batches writes while a write is in progress
+class TradePartition(server: String, partition: Int) extends PersistentActor {
+
+  val log = Logging(context.system, this)
+
+  override def persistenceId: String = TradePartition.persistenceId(server, partition)
+
+  private var recovered = Vector[TradeEventPersisted]()
+
+  // server sequence numbers and journal sequence numbers of events not yet deleted
+
+  private var persisted = Vector[(Long, Long)]()
+
+  private var persistedSeqs = Set[Long]()
+
+  def persistedEvent(seq: Long, sequenceNr: Long): Unit = {
+    persisted = persisted :+ ((seq, sequenceNr))
+    persistedSeqs = persistedSeqs + seq
+  }
+
+  // server sequence numbers of events being persisted
+
+  private var writing = Set[Long]()
+
+  // events sent again after a restart may already be persisted or being persisted, they can be sent after
+  // later events so sequence numbers aren't only increasing
+
+  def written(seq: Long): Boolean = writing.contains(seq) || persistedSeqs.contains(seq)
+
+  override val receiveRecover: Receive = {
+
+    case evt: TradeEventPosted =>
+      recovered = recovered :+ TradeEventPersisted(evt, PostedEventJson(evt.event))
+      persistedEvent(evt.seq.get, lastSequenceNr)
+
+    case RecoveryCompleted =>
+      context.parent ! PartitionRecovered(partition, recovered)
+      recovered = Vector()
+  }
+
+  override val receiveCommand: Receive = {
+
+    // writes are batched by the journal while a write is in progress
+
+    case PersistTradeEvent(evt) if written(evt.seq.get) =>
+      log.info(s"Trade event ${evt.seq.get} already persisted in partition $partition")
+
+    case PersistTradeEvent(evt) =>
+      writing = writing + evt.seq.get
+      val start = System.nanoTime()
+      persistAsync(evt) { e =>
+        writing = writing - e.seq.get
+        persistedEvent(e.seq.get, lastSequenceNr)
+        context.parent ! TradeEventPersisted(e, PostedEventJson(e.event), System.nanoTime() - start)
+      }
+
+    case PersistenceFailure(evt: TradeEventPosted, sequenceNr, cause) =>
+      writing = writing - evt.seq.get
+      log.error(s"Failed to persist trade event ${evt.seq.get} in partition $partition: $cause")
+      context.parent ! TradeEventFailed(evt, cause)
+
+    // events up to a server snapshot aren't needed for recovery
+
+    case DeleteEventsUpTo(seq) =>
+      val (deleted, kept) = persisted.span(_._1 <= seq)
+      deleted.lastOption.foreach { case (_, sequenceNr) => deleteMessages(sequenceNr, permanent = true) }
+      persisted = kept
+      persistedSeqs = persistedSeqs -- deleted.map(_._1)
+  }
+}
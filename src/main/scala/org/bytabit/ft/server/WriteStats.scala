@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+// journal write counters since the stats were last reset, latency is from a write's persist call
+// until the journal confirmed it, in nanos
+
+final case class WriteStats(since: Long = System.currentTimeMillis(), batches: Long = 0, events: Long = 0,
+                            totalNanos: Long = 0, maxNanos: Long = 0) {
+
+  def batchWritten(size: Int, nanos: Long) =
+    this.copy(batches = batches + 1, events = events + size,
+      totalNanos = totalNanos + nanos, maxNanos = Math.max(maxNanos, nanos))
+
+  def eventsPerSecond(now: Long = System.currentTimeMillis()): Double =
+    if (now > since) events * 1000.0 / (now - since) else 0.0
+
+  def meanBatchSize: Double = if (batches > 0) events.toDouble / batches else 0.0
+
+  // in millis
+
+  def meanLatency: Double = if (batches > 0) totalNanos / 1e6 / batches else 0.0
+
+  def maxLatency: Double = maxNanos / 1e6
+
+  override def toString =
+    f"$events%d events in $batches%d batches, ${eventsPerSecond()}%.1f events/s, " +
+      f"mean batch $meanBatchSize%.1f, mean latency $meanLatency%.2f ms, max latency $maxLatency%.2f ms"
+}
@@ -16,17 +16,54 @@
 
 package org.bytabit.ft.trade
 
+import java.util.UUID
+
+import org.bitcoinj.core.Sha256Hash
 import org.bytabit.ft.trade.TradeProcess._
 import org.bytabit.ft.trade.model.{BtcBuyOffer, Contract, SignedTakenOffer, TakenOffer, _}
 import org.bytabit.ft.util.EventJsonFormat
 import org.bytabit.ft.wallet.WalletJsonProtocol
+import org.joda.money.Money
 import spray.json._
 
 trait TradeJsonProtocol extends WalletJsonProtocol {
 
   implicit def contractJsonFormat = jsonFormat(Contract.apply, "text", "arbitrator", "fiatCurrencyUnit", "paymentMethod")
 
-  implicit def offerJsonFormat = jsonFormat(Offer.apply, "id", "contract", "fiatAmount", "btcAmount")
+  // offers are written with their contract's id instead of the whole contract if writeContractIds, they are
+  // read with the contract from knownContract, offers written before contracts were referred to by id and
+  // offers in journals and snapshots have the whole contract
+
+  def writeContractIds: Boolean = false
+
+  def knownContract(id: Sha256Hash): Option[Contract] = None
+
+  implicit def offerJsonFormat: RootJsonFormat[Offer] = new RootJsonFormat[Offer] {
+
+    override def read(json: JsValue): Offer = {
+      val fields = json.asJsObject.fields
+      val contract = (fields.get("contract"), fields.get("contractId")) match {
+        case (Some(c), _) =>
+          c.convertTo[Contract]
+        case (None, Some(cid)) =>
+          val id = cid.convertTo[Sha256Hash]
+          knownContract(id).getOrElse(deserializationError(s"Unknown contract $id"))
+        case _ =>
+          deserializationError("Offer contract expected")
+      }
+      json.asJsObject.getFields("id", "fiatAmount", "btcAmount") match {
+        case Seq(id, fiatAmount, btcAmount) =>
+          Offer(id.convertTo[UUID], contract, fiatAmount.convertTo[Money], btcAmount.convertTo[Money])
+        case _ =>
+          deserializationError("Offer expected")
+      }
+    }
+
+    override def write(o: Offer): JsValue = {
+      val contract = if (writeContractIds) "contractId" -> o.contract.id.toJson else "contract" -> o.contract.toJson
+      JsObject("id" -> o.id.toJson, contract, "fiatAmount" -> o.fiatAmount.toJson, "btcAmount" -> o.btcAmount.toJson)
+    }
+  }
 
   implicit def btcBuyOfferJsonFormat = jsonFormat(BtcBuyOffer.apply, "offer", "btcBuyer", "posted")
 
@@ -112,7 +149,7 @@ trait TradeJsonProtocol extends WalletJsonProtocol {
     simpleName(classOf[BtcBuyerFunded]) -> btcBuyerFundedJsonFormat
   )
 
-  implicit def tradeEventJsonFormat = new EventJsonFormat[TradeProcess.Event](tradeEventJsonFormatMap)
+  implicit lazy val tradeEventJsonFormat = new EventJsonFormat[TradeProcess.Event](tradeEventJsonFormatMap)
 
   implicit def tradePostedEventJsonFormat = new RootJsonFormat[TradeProcess.PostedEvent] {
 
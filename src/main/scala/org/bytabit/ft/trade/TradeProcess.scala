@@ -23,6 +23,7 @@ import akka.actor.{ActorRef, Props}
 import akka.http.scaladsl.Http
 import akka.http.scaladsl.marshalling.Marshal
 import akka.http.scaladsl.model._
+import akka.http.scaladsl.model.headers.RawHeader
 import akka.http.scaladsl.unmarshalling.Unmarshal
 import akka.persistence.fsm.PersistentFSM
 import akka.persistence.fsm.PersistentFSM.FSMState
@@ -31,11 +32,13 @@ import akka.stream.scaladsl.{Sink, Source}
 import org.bitcoinj.core.{Address, Sha256Hash, Transaction, TransactionOutput}
 import org.bytabit.ft.trade.TradeProcess.{BtcBuyerSignedOffer, _}
 import org.bytabit.ft.trade.model.{BtcBuyOffer, TakenOffer, TradeData, _}
-import org.bytabit.ft.util.Posted
+import org.bytabit.ft.util.{Config, HttpCoding, Posted}
 import org.bytabit.ft.wallet.model._
 import org.joda.time.DateTime
 
 import scala.collection.JavaConversions._
+import scala.concurrent.duration._
+import scala.language.postfixOps
 import scala.reflect._
 import scala.util.{Failure, Success, Try}
 
@@ -349,17 +352,24 @@ trait TradeProcess extends PersistentFSM[TradeProcess.State, TradeData, TradePro
 
   // http request and handler
 
-  def postTradeEvent(url: URL, postedEvent: TradeProcess.PostedEvent, self: ActorRef): Unit = {
+  // posts rejected by server admission control are retried after Retry-After seconds, posts without
+  // a response are retried too, the nonce is the same for each retry so the server won't post it again
 
-    val tradeUri = s"/trade"
+  def retryAfter(headers: Seq[HttpHeader]): FiniteDuration =
+    headers.find(_.is("retry-after")).flatMap(h => Try(h.value.trim.toLong.seconds).toOption).getOrElse(1 second)
+
+  def postTradeEvent(url: URL, postedEvent: TradeProcess.PostedEvent, self: ActorRef, retries: Int = 0,
+                     nonce: String = UUID.randomUUID().toString): Unit = {
+
+    val tradeUri = s"${url.getPath.stripSuffix("/")}/trade"
 
     Marshal(postedEvent.toJson).to[RequestEntity].onSuccess {
 
       case reqEntity =>
 
         val req = Source.single(HttpRequest(uri = tradeUri, method = HttpMethods.POST,
-          entity = reqEntity.withContentType(ContentTypes.`application/json`)))
-          .via(connectionFlow(url))
+          headers = List(HttpCoding.acceptEncoding, RawHeader("Idempotency-Key", nonce)), entity = reqEntity.withContentType(ContentTypes.`application/json`)))
+          .via(connectionFlow(url)).map(HttpCoding.decode)
 
         req.runWith(Sink.head).onComplete {
 
@@ -372,9 +382,20 @@ trait TradeProcess extends PersistentFSM[TradeProcess.State, TradeData, TradePro
                 log.error("No posted event in response.")
             }
 
+          case Success(HttpResponse(sc@(StatusCodes.TooManyRequests | StatusCodes.ServiceUnavailable), h, e, p))
+            if retries < Config.postMaxRetries =>
+            val wait = retryAfter(h)
+            log.warning(s"Response from ${url.toString}$tradeUri ${sc.toString()}, retrying in $wait")
+            e.dataBytes.runWith(Sink.ignore)
+            system.scheduler.scheduleOnce(wait)(postTradeEvent(url, postedEvent, self, retries + 1, nonce))
+
           case Success(HttpResponse(sc, h, e, p)) =>
             log.error(s"Response from ${url.toString}$tradeUri ${sc.toString()}")
 
+          case Failure(failure) if retries < Config.postMaxRetries =>
+            log.warning(s"No Response from ${url.toString}: $failure, retrying")
+            system.scheduler.scheduleOnce(retryAfter(Nil))(postTradeEvent(url, postedEvent, self, retries + 1, nonce))
+
           case Failure(failure) =>
             log.debug(s"No Response from ${url.toString}: $failure")
         }
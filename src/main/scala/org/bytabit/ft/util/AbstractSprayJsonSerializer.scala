@@ -20,6 +20,7 @@ import java.nio.charset.Charset
 
 import akka.actor.ExtendedActorSystem
 import akka.serialization.Serializer
+import spray.json.JsValue
 
 abstract class AbstractSprayJsonSerializer[T <: AnyRef](val system: ExtendedActorSystem) extends Serializer {
 
@@ -32,4 +33,11 @@ abstract class AbstractSprayJsonSerializer[T <: AnyRef](val system: ExtendedActo
   def bytesToString(bytes: Array[Byte]): String = new String(bytes, UTF8)
 
   def stringToBytes(str: String): Array[Byte] = str.getBytes(UTF8)
+
+  // journal entries and snapshots are read as binary or json, and written as configured
+
+  def bytesToJson(bytes: Array[Byte]): JsValue = JsBinary.read(bytes)
+
+  def jsonToBytes(json: JsValue): Array[Byte] =
+    if (Config.journalBinary) JsBinary.write(json) else stringToBytes(json.compactPrint)
 }
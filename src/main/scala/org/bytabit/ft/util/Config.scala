@@ -18,9 +18,13 @@ package org.bytabit.ft.util
 
 import java.io.File
 import java.net.URL
+import java.util.concurrent.TimeUnit
 
 import com.typesafe.config.ConfigFactory
 
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.language.postfixOps
 import scala.util.Try
 
 object Config {
@@ -43,6 +47,27 @@ object Config {
 
   val journalDir = getFile(s"$akkaPersistence.journal.leveldb.dir", s"$home/.bytabit/fiat-trader/$config/journal")
 
+  val segmentedJournalDir = getFile(s"$akkaPersistence.journal.segmented.dir", s"$home/.bytabit/fiat-trader/$config/segmented-journal")
+
+  val journalPlugin = getString(s"$akkaPersistence.journal.plugin", "akka.persistence.journal.leveldb")
+
+  val pluginJournalDir = if (journalPlugin == s"$akkaPersistence.journal.segmented") segmentedJournalDir else journalDir
+
+  val archiveDir = getFile(s"$configRoot.server.archive-dir", s"$home/.bytabit/fiat-trader/$config/archive")
+
+  val journalBinary = getBoolean(s"$configRoot.journal-binary", default = true)
+
+  // event client configs
+
+  val eventsPageLimit = getInt(s"$configRoot.events-page-limit", 100)
+  val eventsStreamEnabled = getBoolean(s"$configRoot.events-stream-enabled", default = true)
+  val eventsStreamMaxFrame = getInt(s"$configRoot.events-stream-max-frame", 1048576)
+  val eventsReceiveBatch = getInt(s"$configRoot.events-receive-batch", 100)
+  val eventsCurrencyUnits = getStringSeq(s"$configRoot.events-currency-units", Seq())
+  val eventsPaymentMethods = getStringSeq(s"$configRoot.events-payment-methods", Seq())
+  val postMaxRetries = getInt(s"$configRoot.post-max-retries", 5)
+  val writeContractIds = getBoolean(s"$configRoot.write-contract-ids", default = false)
+
   // wallet configs
 
   val walletNet = getString(s"$configRoot.wallet.net", "org.bitcoin.test")
@@ -67,7 +92,42 @@ object Config {
   val publicPort = getInt(s"$configRoot.server.public-port", 9000)
   val publicProtocol = getString(s"$configRoot.server.public-protocol", "http")
 
-  val publicUrl = new URL(s"$publicProtocol://$publicAddress:$publicPort")
+  val publicPath = getString(s"$configRoot.server.public-path", "")
+
+  val publicUrl = new URL(s"$publicProtocol://$publicAddress:$publicPort$publicPath")
+
+  val serverArbitrators = getStringSeq(s"$configRoot.server.arbitrators", Seq())
+
+  val serverLeaderUrl = Some(getString(s"$configRoot.server.leader-url", "")).filter(_.nonEmpty).map(new URL(_))
+  val serverFollowerRetry = getDuration(s"$configRoot.server.follower-retry", 1 second)
+  val serverTrustedFollowers = getStringSeq(s"$configRoot.server.trusted-followers", Seq()).toSet
+
+  val serverEventsPageLimit = getInt(s"$configRoot.server.events-page-limit", 500)
+  val serverEventsStreamBuffer = getInt(s"$configRoot.server.events-stream-buffer", 1000)
+  val serverEventsStreamHeartbeat = getDuration(s"$configRoot.server.events-stream-heartbeat", 30 seconds)
+
+  val serverPostMaxInFlight = getInt(s"$configRoot.server.post-max-in-flight", 1000)
+  val serverPostRateLimit = getDouble(s"$configRoot.server.post-rate-limit", 10.0)
+  val serverPostRateBurst = getInt(s"$configRoot.server.post-rate-burst", 50)
+  val serverPostRetryAfter = getDuration(s"$configRoot.server.post-retry-after", 1 second)
+  val serverPostDedupKeys = getInt(s"$configRoot.server.post-dedup-keys", 100000)
+
+  val serverTradePartitions = getInt(s"$configRoot.server.trade-partitions", 4)
+
+  val serverStatsBucket = getDuration(s"$configRoot.server.stats-bucket", 1 hour)
+  val serverStatsBuckets = getInt(s"$configRoot.server.stats-buckets", 168)
+
+  val serverWriteBatchSize = getInt(s"$configRoot.server.write-batch-size", 100)
+  val serverWriteFlushInterval = getDuration(s"$configRoot.server.write-flush-interval", 5 millis)
+  val serverWriteStatsInterval = getDuration(s"$configRoot.server.write-stats-interval", 1 minute)
+
+  val serverSnapshotEvents = getInt(s"$configRoot.server.snapshot-events", 1000)
+  val serverSnapshotInterval = getDuration(s"$configRoot.server.snapshot-interval", 1 hour)
+  val serverDeleteJournalAfterSnapshot = getBoolean(s"$configRoot.server.delete-journal-after-snapshot", default = true)
+
+  val serverCompactInterval = getDuration(s"$configRoot.server.compact-interval", 1 hour)
+  val serverCompactFinishedAfter = getDuration(s"$configRoot.server.compact-finished-after", 7 days)
+  val serverCompactFiatSentAfter = getDuration(s"$configRoot.server.compact-fiat-sent-after", 30 days)
 
   // helper functions
 
@@ -75,6 +135,10 @@ object Config {
     if (appConfig.hasPath(key)) appConfig.getString(key) else default
   }
 
+  def getStringSeq(key: String, default: Seq[String]): Seq[String] = {
+    if (appConfig.hasPath(key)) appConfig.getStringList(key).asScala else default
+  }
+
   def getBoolean(key: String, default: Boolean): Boolean = {
     if (appConfig.hasPath(key)) appConfig.getBoolean(key) else default
   }
@@ -87,10 +151,19 @@ object Config {
     if (appConfig.hasPath(key)) appConfig.getDouble(key) else default
   }
 
+  def getDuration(key: String, default: FiniteDuration): FiniteDuration = {
+    if (appConfig.hasPath(key)) FiniteDuration(appConfig.getDuration(key, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS) else default
+  }
+
   def getFile(key: String, default: String): File = {
     if (appConfig.hasPath(key)) new File(appConfig.getString(key)) else new File(default)
   }
 
+  // Total size of files in a data directory
+  def dirSize(dir: File): Long = {
+    Option(dir.listFiles).map(_.map(f => if (f.isDirectory) dirSize(f) else f.length).sum).getOrElse(0L)
+  }
+
   // Create data directories if not existing
   def createDir(dir: File): Try[File] = Try {
 
@@ -18,6 +18,17 @@ package org.bytabit.ft.util
 
 import spray.json._
 
+object EventJsonFormat {
+
+  // event class simple names are looked up once per class
+
+  private val eventNames = new ClassValue[String] {
+    override def computeValue(clazz: Class[_]): String = clazz.getSimpleName
+  }
+
+  def eventName(clazz: Class[_]): String = eventNames.get(clazz)
+}
+
 class EventJsonFormat[E](eventJsonFormatMap: Map[String, RootJsonFormat[_ <: E]]) extends RootJsonFormat[E] {
 
   override def read(json: JsValue): E = {
@@ -35,7 +46,7 @@ class EventJsonFormat[E](eventJsonFormatMap: Map[String, RootJsonFormat[_ <: E]]
   }
 
   override def write(data: E): JsValue = {
-    val event = data.getClass.getSimpleName
+    val event = EventJsonFormat.eventName(data.getClass)
     val eventJson: JsValue = eventJsonFormatMap.get(event) match {
       case Some(format) =>
         format.asInstanceOf[RootJsonFormat[E]].write(data)
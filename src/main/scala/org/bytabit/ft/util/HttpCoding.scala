@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.util
+
+import akka.http.scaladsl.coding.{Deflate, Gzip}
+import akka.http.scaladsl.model.HttpResponse
+import akka.http.scaladsl.model.headers.{HttpEncodings, `Accept-Encoding`}
+
+// compressed event server responses, clients ask for gzip or deflate and decode what the server sends
+
+object HttpCoding {
+
+  val acceptEncoding = `Accept-Encoding`(HttpEncodings.gzip, HttpEncodings.deflate)
+
+  def decode(response: HttpResponse): HttpResponse = response.encoding match {
+    case HttpEncodings.gzip => Gzip.decode(response)
+    case HttpEncodings.deflate => Deflate.decode(response)
+    case _ => response
+  }
+}
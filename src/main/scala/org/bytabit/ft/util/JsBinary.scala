@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.util
+
+import java.io.ByteArrayOutputStream
+import java.nio.charset.Charset
+
+import spray.json._
+
+import scala.collection.mutable
+
+// compact binary encoding of json values for the journal and snapshots, a magic byte and version
+// are written first so json written before it can still be read
+//
+// values are tagged, object keys are written once per value and then referred to by index,
+// whole numbers are zig-zag varints and lower case hex strings are written as bytes
+
+object JsBinary {
+
+  val UTF8: Charset = Charset.forName("UTF-8")
+
+  // not a valid first byte of utf-8 json
+  val Magic: Byte = 0xB7.toByte
+  val Version: Byte = 1
+
+  val TagNull = 0
+  val TagFalse = 1
+  val TagTrue = 2
+  val TagLong = 3
+  val TagDecimal = 4
+  val TagString = 5
+  val TagHex = 6
+  val TagArray = 7
+  val TagObject = 8
+
+  val MinHexLength = 16
+
+  def isBinary(bytes: Array[Byte]): Boolean = bytes.length > 1 && bytes(0) == Magic
+
+  def write(js: JsValue): Array[Byte] = {
+    val out = new Writer
+    out.write(Magic)
+    out.write(Version)
+    out.value(js)
+    out.toByteArray
+  }
+
+  def read(bytes: Array[Byte]): JsValue =
+    if (isBinary(bytes)) bytes(1) match {
+      case Version => new Reader(bytes, 2).value()
+      case v => throw new IllegalArgumentException(s"Unknown binary json version: $v")
+    }
+    else JsonParser(ParserInput(bytes))
+
+  def isHex(s: String): Boolean =
+    s.length >= MinHexLength && s.length % 2 == 0 && s.forall(c => (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))
+
+  private val hexChars = "0123456789abcdef".toCharArray
+
+  private class Writer extends ByteArrayOutputStream {
+
+    private val keys = mutable.HashMap[String, Int]()
+
+    def varint(n: Long): Unit = {
+      var v = n
+      while ((v & ~0x7FL) != 0) {
+        write(((v & 0x7F) | 0x80).toInt)
+        v >>>= 7
+      }
+      write(v.toInt)
+    }
+
+    def zigzag(n: Long): Unit = varint((n << 1) ^ (n >> 63))
+
+    def bytes(b: Array[Byte]): Unit = {
+      varint(b.length)
+      write(b, 0, b.length)
+    }
+
+    def string(s: String): Unit = bytes(s.getBytes(UTF8))
+
+    def hex(s: String): Unit = {
+      varint(s.length / 2)
+      for (i <- 0 until s.length by 2) write(Character.digit(s.charAt(i), 16) << 4 | Character.digit(s.charAt(i + 1), 16))
+    }
+
+    def key(k: String): Unit = keys.get(k) match {
+      case Some(i) =>
+        varint(i + 1)
+      case None =>
+        keys.put(k, keys.size)
+        varint(0)
+        string(k)
+    }
+
+    def value(js: JsValue): Unit = js match {
+      case JsNull =>
+        write(TagNull)
+      case JsBoolean(false) =>
+        write(TagFalse)
+      case JsBoolean(true) =>
+        write(TagTrue)
+      case JsNumber(n) if n.scale == 0 && n.isValidLong =>
+        write(TagLong)
+        zigzag(n.toLong)
+      case JsNumber(n) =>
+        write(TagDecimal)
+        zigzag(n.scale)
+        bytes(n.underlying.unscaledValue.toByteArray)
+      case JsString(s) if isHex(s) =>
+        write(TagHex)
+        hex(s)
+      case JsString(s) =>
+        write(TagString)
+        string(s)
+      case JsArray(vs) =>
+        write(TagArray)
+        varint(vs.size)
+        vs.foreach(value)
+      case JsObject(fs) =>
+        write(TagObject)
+        varint(fs.size)
+        fs.foreach { case (k, v) =>
+          key(k)
+          value(v)
+        }
+    }
+  }
+
+  private class Reader(buf: Array[Byte], var pos: Int) {
+
+    private val keys = mutable.ArrayBuffer[String]()
+
+    def byte(): Int = {
+      if (pos >= buf.length) throw new IllegalArgumentException("Truncated binary json")
+      val b = buf(pos) & 0xFF
+      pos += 1
+      b
+    }
+
+    def varint(): Long = {
+      var n = 0L
+      var shift = 0
+      var b = byte()
+      while ((b & 0x80) != 0) {
+        n |= (b & 0x7F).toLong << shift
+        shift += 7
+        b = byte()
+      }
+      n | (b.toLong << shift)
+    }
+
+    def zigzag(): Long = {
+      val n = varint()
+      (n >>> 1) ^ -(n & 1)
+    }
+
+    def bytes(): Array[Byte] = {
+      val len = varint().toInt
+      if (len < 0 || pos + len > buf.length) throw new IllegalArgumentException("Truncated binary json")
+      val b = java.util.Arrays.copyOfRange(buf, pos, pos + len)
+      pos += len
+      b
+    }
+
+    def string(): String = {
+      val len = varint().toInt
+      if (len < 0 || pos + len > buf.length) throw new IllegalArgumentException("Truncated binary json")
+      val s = new String(buf, pos, len, UTF8)
+      pos += len
+      s
+    }
+
+    def hex(): String = {
+      val b = bytes()
+      val cs = new Array[Char](b.length * 2)
+      for (i <- b.indices) {
+        cs(i * 2) = hexChars((b(i) >> 4) & 0xF)
+        cs(i * 2 + 1) = hexChars(b(i) & 0xF)
+      }
+      new String(cs)
+    }
+
+    def key(): String = varint().toInt match {
+      case 0 =>
+        val k = string()
+        keys += k
+        k
+      case i =>
+        keys(i - 1)
+    }
+
+    def value(): JsValue = byte() match {
+      case TagNull => JsNull
+      case TagFalse => JsFalse
+      case TagTrue => JsTrue
+      case TagLong => JsNumber(zigzag())
+      case TagDecimal =>
+        val scale = zigzag().toInt
+        // exact, BigDecimal(BigInt, scale) would round to 34 digits
+        JsNumber(BigDecimal(new java.math.BigDecimal(BigInt(bytes()).bigInteger, scale)))
+      case TagString => JsString(string())
+      case TagHex => JsString(hex())
+      case TagArray => JsArray(Vector.fill(varint().toInt)(value()))
+      case TagObject => JsObject((0 until varint().toInt).map(_ => key() -> value()).toMap)
+      case t => throw new IllegalArgumentException(s"Unknown binary json tag: $t")
+    }
+  }
+}
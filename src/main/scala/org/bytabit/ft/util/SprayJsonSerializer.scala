@@ -16,24 +16,23 @@
 
 package org.bytabit.ft.util
 
-import java.lang.reflect.Method
 import java.nio.ByteBuffer
 import java.nio.charset.Charset
-import java.util.concurrent.atomic.AtomicReference
 
 import akka.actor.ExtendedActorSystem
 import akka.serialization.Serializer
 import spray.json._
 
-import scala.annotation.tailrec
-
 object SprayJsonSerializer {
   val UTF8: Charset = Charset.forName("UTF-8")
-  val JSVALUE = classOf[JsValue]
   val ID: Int = ByteBuffer.wrap("SprayJsonSerializer".getBytes(UTF8)).getInt
 }
 
-class SprayJsonSerializer(val system: ExtendedActorSystem) extends Serializer {
+// serializes instances of the classes registered with their formats by a subclass, a class registered
+// for a trait serializes all its subclasses, bytes are read as binary or json by JsBinary and written
+// as binary or json as configured
+
+abstract class SprayJsonSerializer(val system: ExtendedActorSystem) extends Serializer {
 
   import SprayJsonSerializer._
 
@@ -41,35 +40,30 @@ class SprayJsonSerializer(val system: ExtendedActorSystem) extends Serializer {
 
   def includeManifest = true
 
-  private val parsingMethodBindingRef = new AtomicReference[Map[Class[_], Method]](Map.empty)
-  private val toByteArrayMethodBindingRef = new AtomicReference[Map[Class[_], Method]](Map.empty)
-
-  def fromBinary(bytes: Array[Byte], manifest: Option[Class[_]]) = {
-    manifest match {
-      case Some(clazz) ⇒
-        @tailrec
-        def parsingMethod(method: Method = null): Method = {
-          val parsingMethodBinding = parsingMethodBindingRef.get()
-          parsingMethodBinding.get(clazz) match {
-            case Some(cachedParsingMethod) ⇒ cachedParsingMethod
-            case None ⇒
-              val unCachedParsingMethod =
-                if (method eq null) clazz.getDeclaredMethod("fromJsValue", JSVALUE)
-                else method
-              if (parsingMethodBindingRef.compareAndSet(parsingMethodBinding, parsingMethodBinding.updated(clazz, unCachedParsingMethod)))
-                unCachedParsingMethod
-              else
-                parsingMethod(unCachedParsingMethod)
-          }
-        }
-        parsingMethod().invoke(null, new String(bytes, UTF8).parseJson)
-
-      case None ⇒ throw new IllegalArgumentException("Need a manifest to be able to de-serialize bytes")
+  def formats: Seq[(Class[_], JsonFormat[_])]
+
+  private lazy val registered = formats
+
+  // format of a class, found once for each class serialized
+
+  private val classFormats = new ClassValue[Option[JsonFormat[AnyRef]]] {
+    override def computeValue(clazz: Class[_]): Option[JsonFormat[AnyRef]] = registered.collectFirst {
+      case (c, f) if c.isAssignableFrom(clazz) => f.asInstanceOf[JsonFormat[AnyRef]]
     }
   }
 
-  def toBinary(x: AnyRef) = x match {
-    case js: SprayJsonWriter => js.toJsValue.toString().getBytes(UTF8)
+  def format(clazz: Class[_]): JsonFormat[AnyRef] = classFormats.get(clazz).getOrElse {
+    throw new IllegalArgumentException(s"No format registered for: ${clazz.getName}")
+  }
+
+  def fromBinary(bytes: Array[Byte], manifest: Option[Class[_]]): AnyRef = manifest match {
+    case Some(clazz) ⇒ format(clazz).read(JsBinary.read(bytes))
+    case None ⇒ throw new IllegalArgumentException("Need a manifest to be able to de-serialize bytes")
+  }
+
+  def toBinary(x: AnyRef): Array[Byte] = {
+    val json = format(x.getClass).write(x)
+    if (Config.journalBinary) JsBinary.write(json) else json.compactPrint.getBytes(UTF8)
   }
 
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.client
+
+import akka.util.ByteString
+import org.bytabit.ft.client.PostedEventsScanner._
+import org.bytabit.ft.server.SerializedPostedEvents
+import org.scalacheck.Gen
+import org.scalatest._
+import org.scalatest.prop.PropertyChecks
+
+class PostedEventsScannerSpec extends FlatSpec with Matchers with PropertyChecks {
+
+  val arbitratorEvent = ByteString("""{"event":"ArbitratorCreated","data":{"url":"http://a.org/}]\"{"}}""")
+  val tradeEvents = Seq(ByteString("""{"event":"BtcBuyerFiatSent","data":{}}"""),
+    ByteString("""{"event":"BtcBuyerSignedOffer","data":{"openSigs":[[0,"ab"],[1,"cd"]]}}"""))
+
+  val response = SerializedPostedEvents(Seq(arbitratorEvent), tradeEvents, Some(42L), 42L).toByteString
+
+  val expected = Seq(ArbitratorEventFrame(arbitratorEvent)) ++ tradeEvents.map(TradeEventFrame) :+ CursorFrame(42L)
+
+  def scan(chunks: Seq[ByteString], maxFrame: Int = 1024): Seq[Frame] = {
+    val scanner = new PostedEventsScanner(maxFrame)
+    chunks.flatMap(scanner.frames)
+  }
+
+  it should "read events and cursor from a whole response" in {
+    scan(Seq(response)) should equal(expected)
+  }
+
+  it should "read the same events and cursor however the response is split into chunks" in {
+    forAll(Gen.choose(1, response.length)) { size =>
+      scan(response.grouped(size).toSeq) should equal(expected)
+    }
+  }
+
+  it should "read spaced json and no cursor" in {
+    val json = ByteString(""" { "tradeEvents" : [ {"event":"BtcBuyerFiatSent","data":{}} ] , "arbitratorEvents" : [ ] } """)
+    scan(Seq(json)) should equal(Seq(TradeEventFrame(tradeEvents.head)))
+  }
+
+  it should "fail on an event larger than the max frame" in {
+    an[IllegalStateException] should be thrownBy scan(Seq(response), maxFrame = 16)
+  }
+}
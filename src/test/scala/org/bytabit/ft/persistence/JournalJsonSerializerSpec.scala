@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import java.net.URL
+import java.util.UUID
+
+import akka.actor.ActorSystem
+import akka.serialization.SerializationExtension
+import org.bytabit.ft.client.EventClient
+import org.bytabit.ft.server.EventServer
+import org.bytabit.ft.trade.{TradeJsonSerializer, TradeProcess}
+import org.joda.time.{DateTime, DateTimeZone}
+import org.scalatest._
+
+class JournalJsonSerializerSpec extends FlatSpec with Matchers with BeforeAndAfterAll {
+
+  val system = ActorSystem("journal-json")
+
+  val serialization = SerializationExtension(system)
+
+  override def afterAll(): Unit = {
+    system.shutdown()
+    system.awaitTermination()
+  }
+
+  val url = new URL("http://bytabit.org")
+
+  val canceled = TradeProcess.BtcBuyerCanceledOffer(UUID.randomUUID(), Some(DateTime.now(DateTimeZone.UTC)))
+
+  def roundTrip(o: AnyRef): AnyRef = {
+    val serializer = serialization.findSerializerFor(o)
+    serializer shouldBe a[JournalJsonSerializer]
+    serialization.deserialize(serializer.toBinary(o), serializer.identifier, Some(o.getClass)).get
+  }
+
+  it should "serialize journal events of each persistent actor" in {
+    val events = Seq(canceled, EventServer.TradeEventPosted(canceled, Some(1), Some("key")),
+      EventClient.TradeRemoved(url, canceled.id, canceled.posted), EventClient.PostedEventsCursorReceived(url, 7))
+
+    events.foreach(e => roundTrip(e) should equal(e))
+  }
+
+  it should "serialize the EventServer data snapshot" in {
+    val data = EventServer.Data(lastSeq = 3)
+
+    roundTrip(data).asInstanceOf[EventServer.Data].lastSeq should equal(3)
+  }
+
+  it should "read journal events written by the serializer they were written with before" in {
+    val old = serialization.serializerOf(classOf[TradeJsonSerializer].getName).get
+
+    serialization.deserialize(old.toBinary(canceled), old.identifier, Some(canceled.getClass)).get should equal(canceled)
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import java.io.File
+import java.nio.file.Files
+
+import akka.actor.{ActorSystem, Props}
+import akka.pattern.ask
+import akka.persistence.PersistentActor
+import akka.util.Timeout
+import com.typesafe.config.ConfigFactory
+import org.scalatest._
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+import scala.language.postfixOps
+
+object LeveldbMigrationSpec {
+
+  case object GetRecovered
+
+  case class DeleteTo(sequenceNr: Long, permanent: Boolean)
+
+  class Recorder(override val persistenceId: String) extends PersistentActor {
+
+    var recovered = Vector[String]()
+
+    override def receiveRecover: Receive = {
+      case s: String => recovered :+= s
+    }
+
+    override def receiveCommand: Receive = {
+      case GetRecovered => sender() ! ((recovered, lastSequenceNr))
+      case DeleteTo(n, permanent) => deleteMessages(n, permanent)
+      case s: String => persist(s)(e => sender() ! lastSequenceNr)
+    }
+  }
+
+}
+
+class LeveldbMigrationSpec extends FlatSpec with Matchers {
+
+  import LeveldbMigrationSpec._
+
+  implicit val timeout = Timeout(10 seconds)
+
+  def newDir: File = Files.createTempDirectory("journal-migration").toFile
+
+  def withSystem[T](journal: String, dir: File)(f: ActorSystem => T): T = {
+    val system = ActorSystem("migration", ConfigFactory.parseString(
+      s"""akka.persistence.journal.plugin = "akka.persistence.journal.$journal"
+         |akka.persistence.journal.leveldb.dir = "${new File(dir, "leveldb").getPath}"
+         |akka.persistence.journal.leveldb.native = false
+         |akka.persistence.journal.segmented.dir = "${new File(dir, "segmented").getPath}"
+         |akka.persistence.snapshot-store.local.dir = "${new File(dir, "snapshots").getPath}"
+         |akka.actor.serialization-bindings."java.lang.String" = java
+         |""".stripMargin).withFallback(ConfigFactory.load()))
+    try f(system) finally {
+      system.shutdown()
+      system.awaitTermination()
+    }
+  }
+
+  def send(system: ActorSystem, pid: String, msgs: Any*): Any = {
+    val ref = system.actorOf(Props(new Recorder(pid)))
+    msgs.map(m => Await.result(ref ? m, timeout.duration)).last
+  }
+
+  it should "replay leveldb journal entries from the segmented journal after migrating" in {
+    val dir = newDir
+
+    withSystem("leveldb", dir) { system =>
+      val ref = system.actorOf(Props(new Recorder("trades-1")))
+      Seq("a", "b", "c", "d", "e").foreach(e => Await.result(ref ? e, timeout.duration))
+      ref ! DeleteTo(2, permanent = true)
+      ref ! DeleteTo(3, permanent = false)
+      // the journal handles the deletes before this write
+      Await.result(ref ? "f", timeout.duration) should be(6L)
+
+      send(system, "trades-2", "x", "y") should be(2L)
+    }
+
+    val copied = LeveldbMigration.migrate(new File(dir, "leveldb"), new File(dir, "segmented"), native = false)
+    copied should equal(Map("trades-1" -> 6L, "trades-2" -> 2L))
+
+    withSystem("segmented", dir) { system =>
+      send(system, "trades-1", GetRecovered) should equal((Vector("d", "e", "f"), 6L))
+      send(system, "trades-2", GetRecovered) should equal((Vector("x", "y"), 2L))
+      send(system, "trades-1", "g") should be(7L)
+    }
+
+    withSystem("segmented", dir) { system =>
+      send(system, "trades-1", GetRecovered) should equal((Vector("d", "e", "f", "g"), 7L))
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.persistence
+
+import java.io.{File, RandomAccessFile}
+import java.nio.file.Files
+
+import org.scalatest._
+
+import scala.collection.mutable.ArrayBuffer
+
+class SegmentedLogSpec extends FlatSpec with Matchers {
+
+  def newDir: File = Files.createTempDirectory("segmented-log").toFile
+
+  def entry(n: Long): Array[Byte] = s"entry-$n".getBytes("UTF-8")
+
+  // small segments so entries are written to several
+  def open(dir: File) = new SegmentedLog(dir, 256, 4, 64)
+
+  def replay(log: SegmentedLog, from: Long = 1, to: Long = Long.MaxValue, max: Long = Long.MaxValue) = {
+    val replayed = ArrayBuffer[(Long, String, Boolean)]()
+    log.replay(from, to, max)((n, bytes, deleted, confirms) => replayed += ((n, new String(bytes, "UTF-8"), deleted)))
+    replayed.toList
+  }
+
+  it should "replay entries written to several segments after reopening" in {
+    val dir = newDir
+    val log = open(dir)
+    (1L to 50L).foreach(n => log.append(n, entry(n)))
+    log.force()
+
+    dir.listFiles.count(JournalSegment.isSegment) should be > 1
+
+    val reopened = open(dir)
+    reopened.highestSequenceNr should be(50L)
+    replay(reopened).map(_._1) should equal((1L to 50L).toList)
+    replay(reopened, from = 23, to = 31).map(_._2) should equal((23L to 31L).map(n => s"entry-$n").toList)
+    replay(reopened, from = 10, max = 3).map(_._1) should equal(List(10L, 11L, 12L))
+  }
+
+  it should "replay deleted entries as deleted, not replay removed entries and keep the highest sequence number" in {
+    val dir = newDir
+    val log = open(dir)
+    (1L to 50L).foreach(n => log.append(n, entry(n)))
+    val segments = dir.listFiles.count(JournalSegment.isSegment)
+
+    log.deleteTo(5, permanent = false)
+    replay(log).take(6).map(_._3) should equal(List(true, true, true, true, true, false))
+
+    log.deleteTo(50, permanent = true)
+    dir.listFiles.count(JournalSegment.isSegment) should be < segments
+    replay(log) should be(empty)
+
+    val reopened = open(dir)
+    reopened.highestSequenceNr should be(50L)
+    reopened.append(51, entry(51))
+    replay(reopened).map(_._1) should equal(List(51L))
+  }
+
+  it should "keep appending after the last segment position when closed between appends" in {
+    val dir = newDir
+    val log = open(dir)
+    (1L to 30L).foreach { n =>
+      log.append(n, entry(n))
+      if (n % 7 == 0) log.close()
+    }
+    log.close()
+
+    replay(open(dir)).map(_._2) should equal((1L to 30L).map(n => s"entry-$n").toList)
+  }
+
+  it should "drop a torn entry at the end of the last segment" in {
+    val dir = newDir
+    val log = open(dir)
+    (1L to 3L).foreach(n => log.append(n, entry(n)))
+    log.force()
+
+    // corrupt the last entry's bytes
+    val last = dir.listFiles.filter(JournalSegment.isSegment).maxBy(JournalSegment.firstSequenceNr)
+    val raf = new RandomAccessFile(last, "rw")
+    val lastOffset = 2 * (JournalSegment.HeaderSize + entry(1).length)
+    raf.seek(lastOffset + JournalSegment.HeaderSize)
+    raf.write("broken".getBytes("UTF-8"))
+    raf.close()
+
+    val reopened = open(dir)
+    reopened.highestSequenceNr should be(2L)
+    reopened.append(3, entry(3))
+    replay(reopened).map(_._1) should equal(List(1L, 2L, 3L))
+  }
+
+  it should "map a new segment at its initial size and grow it as it fills" in {
+    val dir = newDir
+    val log = open(dir)
+    log.append(1, entry(1))
+    log.force()
+
+    val segment = dir.listFiles.filter(JournalSegment.isSegment).head
+    segment.length should be(64L)
+
+    (2L to 8L).foreach(n => log.append(n, entry(n)))
+    log.force()
+    segment.length should be(256L)
+
+    log.close()
+    replay(open(dir)).map(_._1) should equal((1L to 8L).toList)
+  }
+
+  it should "replay confirmations and single deleted entries after reopening" in {
+    val dir = newDir
+    val log = open(dir)
+    (1L to 10L).foreach(n => log.append(n, entry(n)))
+    log.mark(Seq(SegmentedLog.Confirmed(2, "channel-a"), SegmentedLog.Confirmed(2, "channel-b"),
+      SegmentedLog.Deleted(3, permanent = false), SegmentedLog.Deleted(4, permanent = true)))
+    log.close()
+
+    val reopened = open(dir)
+    val replayed = ArrayBuffer[(Long, Boolean, Seq[String])]()
+    reopened.replay(1, 5, Long.MaxValue)((n, bytes, deleted, confirms) => replayed += ((n, deleted, confirms)))
+    replayed.toList should equal(List((1L, false, Seq()), (2L, false, Seq("channel-a", "channel-b")),
+      (3L, true, Seq()), (5L, false, Seq())))
+
+    reopened.deleteTo(10, permanent = true)
+    new File(dir, SegmentedLog.markersFile).length should be(0L)
+  }
+}
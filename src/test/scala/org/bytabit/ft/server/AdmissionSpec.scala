@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import org.bytabit.ft.server.Admission._
+import org.scalatest._
+
+import scala.concurrent.duration._
+
+class AdmissionSpec extends FlatSpec with Matchers {
+
+  val second = 1000000000L
+
+  it should "take a burst of tokens and then refill at the rate" in {
+
+    val b = new TokenBucket(2, 3, 3, 0)
+
+    (1 to 3).map(_ => b.take(0)) should equal(Seq.fill(3)(Right(())))
+    b.take(0) should equal(Left(1.second))
+    b.take(second / 2) should equal(Right(()))
+    b.take(second / 2) should equal(Left(1.second))
+  }
+
+  it should "not refill more than the burst" in {
+
+    val b = new TokenBucket(2, 3, 0, 0)
+
+    (1 to 4).map(_ => b.take(10 * second)) should equal(Seq.fill(3)(Right(())) :+ Left(1.second))
+  }
+
+  it should "rate limit each client separately" in {
+
+    val a = new Admission(maxInFlight = 10, rate = 1, burst = 1, retryAfter = 5.seconds)
+
+    a.admit("a", 0) should equal(Admitted)
+    a.admit("a", 0) should equal(RateLimited(1.second))
+    a.admit("b", 0) should equal(Admitted)
+    a.admit("a", second) should equal(Admitted)
+    a.rateLimited.get should equal(1)
+    a.admitted.get should equal(3)
+  }
+
+  it should "reject posts while too many are in flight until one is done" in {
+
+    val a = new Admission(maxInFlight = 2, rate = 100, burst = 100, retryAfter = 5.seconds)
+
+    a.admit("a", 0) should equal(Admitted)
+    a.admit("b", 0) should equal(Admitted)
+    a.admit("c", 0) should equal(Overloaded(5.seconds))
+    a.done()
+    a.admit("c", 0) should equal(Admitted)
+    a.inFlight.get should equal(2)
+    a.overloaded.get should equal(1)
+  }
+
+  it should "remove idle and least recently used clients" in {
+
+    val a = new Admission(maxInFlight = 10, rate = 1, burst = 2, retryAfter = 5.seconds, maxClients = 2)
+
+    a.admit("a", 0)
+    a.admit("b", 0)
+    a.admit("a", second)
+    a.admit("c", second)
+    a.clients should equal(2)
+    a.admit("a", second) should equal(Admitted)
+    a.admit("a", second) should equal(RateLimited(1.second))
+    a.admit("b", second) should equal(Admitted)
+    a.admit("b", second) should equal(Admitted)
+
+    a.admit("d", 4 * second)
+    a.clients should equal(1)
+  }
+}
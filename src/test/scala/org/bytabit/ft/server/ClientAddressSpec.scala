@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import java.net.InetAddress
+
+import akka.http.scaladsl.model.RemoteAddress
+import org.bytabit.ft.server.EventServerHttpProtocol.clientAddress
+import org.scalatest._
+
+class ClientAddressSpec extends FlatSpec with Matchers {
+
+  def address(ip: String) = RemoteAddress(InetAddress.getByName(ip))
+
+  val follower = address("10.0.0.2")
+
+  val client = address("192.0.2.7")
+
+  it should "use the connection's address if it isn't a trusted follower" in {
+
+    clientAddress(client, Seq(address("198.51.100.1")), Set("10.0.0.2")) should equal(client)
+    clientAddress(follower, Seq(client), Set()) should equal(follower)
+  }
+
+  it should "use the address a trusted follower forwarded" in {
+
+    clientAddress(follower, Seq(client), Set("10.0.0.2")) should equal(client)
+    clientAddress(follower, Seq(), Set("10.0.0.2")) should equal(follower)
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import java.net.URL
+import java.util.UUID
+
+import akka.util.ByteString
+import org.bitcoinj.core._
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.arbitrator.ArbitratorManager
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.{BtcBuyOffer, Contract, Offer}
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.{Arbitrator, BtcBuyer}
+import org.joda.time.DateTime
+import org.scalatest._
+import spray.json._
+
+class JsonSpec extends FlatSpec with Matchers with EventServerJsonProtocol {
+
+  val params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET)
+
+  Context.propagate(new Context(params))
+
+  val arbitratorWallet = new Wallet(params)
+  val btcBuyerWallet = new Wallet(params)
+
+  val arbitratorURL = new URL("http://bytabit.org")
+
+  val arbitrator = Arbitrator(arbitratorURL, 0.20, BTCMoney(1, 0))(arbitratorWallet)
+
+  val contract = Contract(arbitrator, CurrencyUnits.USD, PaymentMethod.swish)
+
+  val offer = Offer(UUID.randomUUID(), contract, FiatMoney(CurrencyUnits.USD, "1500.00"), BTCMoney(5, 0))
+
+  val btcBuyOffer = BtcBuyOffer(offer, BtcBuyer(offer.coinToOpenEscrow)(btcBuyerWallet))
+
+  val posted = Some(DateTime.now())
+
+  it should "serialize EventServer data snapshot to json" in {
+
+    val aes: Seq[ArbitratorManager.PostedEvent] = Seq(ArbitratorManager.ArbitratorCreated(arbitratorURL, arbitrator, posted),
+      ArbitratorManager.ContractAdded(arbitratorURL, contract, posted))
+
+    val tes: Seq[TradeProcess.PostedEvent] = Seq(TradeProcess.BtcBuyerCreatedOffer(offer.id, btcBuyOffer, posted),
+      TradeProcess.BtcBuyerCanceledOffer(offer.id, posted))
+
+    val data = tes.foldLeft(aes.foldLeft(EventServer.Data())((d, e) => d.arbitratorEventPosted(d.lastSeq + 1, e, ByteString(e.toJson.compactPrint))))(
+      (d, e) => d.tradeEventPosted(d.lastSeq + 1, e, ByteString(e.toJson.compactPrint)))
+
+    val json: String = data.toJson.toString()
+
+    val obj: EventServer.Data = json.parseJson.convertTo[EventServer.Data]
+
+    obj.lastSeq should equal(4)
+    obj.postedTradeEvents.entries.map(_.seq) should equal(Seq(3, 4))
+    json should equal(obj.toJson.toString())
+  }
+
+  it should "keep idempotency keys of posted trade events in the EventServer data snapshot" in {
+
+    val tes: Seq[TradeProcess.PostedEvent] = Seq(TradeProcess.BtcBuyerCreatedOffer(offer.id, btcBuyOffer, posted),
+      TradeProcess.BtcBuyerCanceledOffer(offer.id, posted))
+
+    val data = tes.zipWithIndex.foldLeft(EventServer.Data()) { case (d, (e, i)) =>
+      d.tradeEventPosted(i + 1, e, ByteString(e.toJson.compactPrint))
+        .postKeyAdded(s"key$i", EventServer.TradeEventPosted(e, Some(i + 1), Some(s"key$i")))
+    }
+
+    val obj = data.toJson.toString().parseJson.convertTo[EventServer.Data]
+
+    obj.postKeys.entries.map { case (k, e) => (k, e.seq) } should equal(Seq(("key0", Some(1)), ("key1", Some(2))))
+    obj.postKeys.get("key1").map(_.event.toJson) should equal(Some(tes(1).toJson))
+  }
+
+  it should "serve trade events read from the EventServer data snapshot as posted events json" in {
+
+    val te: TradeProcess.PostedEvent = TradeProcess.BtcBuyerCreatedOffer(offer.id, btcBuyOffer, posted)
+
+    val data = EventServer.Data().tradeEventPosted(1, te, PostedEventJson(te))
+
+    val entry = data.toJson.toString().parseJson.convertTo[EventServer.Data].postedTradeEvents.entries.head
+
+    entry.json should equal(PostedEventJson(entry.event))
+  }
+
+  it should "write serialized posted events as PostedEvents json" in {
+
+    val ae: ArbitratorManager.PostedEvent = ArbitratorManager.ArbitratorCreated(arbitratorURL, arbitrator, posted)
+    val te: TradeProcess.PostedEvent = TradeProcess.BtcBuyerCreatedOffer(offer.id, btcBuyOffer, posted)
+
+    val spe = SerializedPostedEvents(Seq(ByteString(ae.toJson.compactPrint)), Seq(ByteString(te.toJson.compactPrint)), Some(2), 2)
+
+    // keys read from json aren't equal to the wallet's keys, so events are compared as json
+    spe.toByteString.utf8String.parseJson.convertTo[PostedEvents].toJson should equal(PostedEvents(Seq(ae), Seq(te), Some(2)).toJson)
+  }
+}
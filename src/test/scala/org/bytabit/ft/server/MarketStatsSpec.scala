@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import java.net.URL
+import java.util.UUID
+
+import org.bitcoinj.core._
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.server.MarketStats._
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.{BtcBuyOffer, Contract, Offer}
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.{Arbitrator, BtcBuyer, BtcSeller}
+import org.joda.money.CurrencyUnit
+import org.joda.time.{DateTime, DateTimeZone}
+import org.scalatest._
+
+class MarketStatsSpec extends FlatSpec with Matchers {
+
+  val params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET)
+
+  Context.propagate(new Context(params))
+
+  val arbitrator = Arbitrator(new URL("http://bytabit.org"), 0.20, BTCMoney(1, 0))(new Wallet(params))
+
+  val wallet = new Wallet(params)
+
+  val start = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC)
+
+  def offer(currency: CurrencyUnit, fiat: String, btc: Int): BtcBuyOffer = {
+    val o = Offer(UUID.randomUUID(), Contract(arbitrator, currency, PaymentMethod.moneygram),
+      FiatMoney(currency, fiat), BTCMoney(btc, 0))
+    BtcBuyOffer(o, BtcBuyer(o.coinToOpenEscrow)(wallet))
+  }
+
+  def created(o: BtcBuyOffer) = TradeProcess.BtcBuyerCreatedOffer(o.id, o, Some(start))
+
+  def taken(o: BtcBuyOffer, minutes: Int) =
+    TradeProcess.BtcSellerTookOffer(o.id, BtcSeller(o.coinToOpenEscrow, o.coinToFundEscrow, List(), List())(wallet),
+      Seq(), Seq(), Array(), Some(start.plusMinutes(minutes)))
+
+  def stats(tes: TradeProcess.PostedEvent*): MarketStats =
+    tes.foldLeft(MarketStats(bucketMillis = 10 * 60 * 1000, maxBuckets = 2))(_.eventPosted(_))
+
+  val usd = offer(CurrencyUnits.USD, "400.00", 1)
+  val usd2 = offer(CurrencyUnits.USD, "1000.00", 2)
+  val usd3 = offer(CurrencyUnits.USD, "900.00", 2)
+  val eur = offer(CurrencyUnits.EUR, "300.00", 1)
+
+  it should "keep open offers until they're taken or canceled" in {
+
+    val s = stats(created(usd), created(usd2), created(eur), TradeProcess.BtcBuyerCanceledOffer(usd2.id))
+
+    s.open.keySet should equal(Set(usd.id, eur.id))
+    s.open(usd.id) should equal(OpenOffer("USD/Moneygram", BigDecimal("400.00"), BigDecimal(1)))
+    stats(created(usd), taken(usd, 1)).open should be(empty)
+  }
+
+  it should "add taken offers to the bucket of their market and time" in {
+
+    val s = stats(created(usd), created(usd2), created(eur), taken(usd, 1), taken(usd2, 9), taken(eur, 2))
+
+    s.buckets("USD/Moneygram") should equal(Vector(
+      Bucket(start.getMillis, 2, BigDecimal("1400.00"), BigDecimal(3), BigDecimal(400), BigDecimal(500), BigDecimal(500))))
+    s.buckets("EUR/Moneygram").map(_.trades) should equal(Vector(1))
+  }
+
+  it should "start a new bucket after the bucket size and keep only the latest buckets" in {
+
+    val s = stats(created(usd), created(usd2), created(usd3), taken(usd, 1), taken(usd2, 12), taken(usd3, 25))
+
+    s.buckets("USD/Moneygram").map(b => (b.start, b.trades, b.last)) should equal(Vector(
+      (start.plusMinutes(10).getMillis, 1, BigDecimal(500)), (start.plusMinutes(20).getMillis, 1, BigDecimal(450))))
+  }
+
+  it should "not count offers taken that weren't open" in {
+
+    stats(taken(usd, 1)).buckets should be(empty)
+  }
+}
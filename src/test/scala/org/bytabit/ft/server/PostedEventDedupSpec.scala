@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.UUID
+
+import org.bytabit.ft.server.EventServer.TradeEventPosted
+import org.bytabit.ft.trade.TradeProcess
+import org.joda.time.DateTime
+import org.scalatest._
+
+class PostedEventDedupSpec extends FlatSpec with Matchers {
+
+  def posted(seq: Long) = TradeEventPosted(TradeProcess.BtcBuyerCanceledOffer(UUID.randomUUID(), Some(DateTime.now())),
+    Some(seq))
+
+  it should "drop the least recently posted key when there are more than the max keys" in {
+    val d = (1 to 4).foldLeft(PostedEventDedup(3))((d, n) => d.added(s"k$n", posted(n)))
+
+    d.size should equal(3)
+    d.get("k1") should equal(None)
+    d.entries.map(_._1) should equal(Seq("k2", "k3", "k4"))
+  }
+
+  it should "keep one entry for a key posted again and make it the most recently posted" in {
+    val again = posted(4)
+    val d = (1 to 3).foldLeft(PostedEventDedup(3))((d, n) => d.added(s"k$n", posted(n)))
+      .added("k1", again).added("k5", posted(5))
+
+    d.size should equal(3)
+    d.get("k1") should equal(Some(again))
+    d.get("k2") should equal(None)
+    d.entries.map(_._1) should equal(Seq("k3", "k1", "k5"))
+  }
+
+  it should "remove keys so their posts can be retried" in {
+    val d = PostedEventDedup(3).added("k1", posted(1)).added("k2", posted(2)).removed("k1")
+
+    d.get("k1") should equal(None)
+    d.entries.map(_._1) should equal(Seq("k2"))
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import akka.util.ByteString
+import org.bytabit.ft.util.Posted
+import org.joda.time.DateTime
+import org.scalacheck.Gen
+import org.scalatest._
+import org.scalatest.prop.PropertyChecks
+
+class PostedEventLogSpec extends FlatSpec with Matchers with PropertyChecks {
+
+  case class TestEvent(n: Int, posted: Option[DateTime]) extends Posted
+
+  val start = DateTime.now()
+
+  def events(offsets: Seq[Int]): Seq[TestEvent] =
+    offsets.zipWithIndex.map { case (o, i) => TestEvent(i, Some(start.plusMillis(o))) }
+
+  def log(es: Seq[TestEvent]) = es.foldLeft(PostedEventLog[TestEvent]())((l, e) => l.append(e.n + 1, e, ByteString(e.n.toString)))
+
+  val sortedOffsets = Gen.listOf(Gen.choose(0, 1000)).map(_.sorted)
+
+  it should "return the same events as a linear scan for any since time" in {
+
+    forAll(sortedOffsets, Gen.choose(-10, 1010)) { (offsets: List[Int], since: Int) =>
+      val es = events(offsets)
+      val s = start.plusMillis(since)
+
+      log(es).postedAfter(Some(s)) should equal(es.filter(_.posted.get.isAfter(s)))
+    }
+  }
+
+  it should "return all events when no since time is given" in {
+
+    forAll(sortedOffsets) { offsets: List[Int] =>
+      val es = events(offsets)
+
+      log(es).postedAfter(None) should equal(es)
+    }
+  }
+
+  it should "return the same events as a linear scan when appended out of posted order" in {
+
+    forAll(Gen.listOf(Gen.choose(0, 1000)), Gen.choose(-10, 1010)) { (offsets: List[Int], since: Int) =>
+      val es = events(offsets)
+      val s = start.plusMillis(since)
+
+      log(es).postedAfter(Some(s)) should equal(es.filter(_.posted.get.isAfter(s)))
+    }
+  }
+
+  it should "return pages of events after a sequence number" in {
+
+    forAll(sortedOffsets, Gen.choose(0, 100), Gen.choose(1, 20)) { (offsets: List[Int], after: Int, limit: Int) =>
+      val es = events(offsets)
+
+      log(es).entriesAfter(Some(after), limit).map(_.event) should equal(es.filter(_.n + 1 > after).take(limit))
+    }
+  }
+
+  it should "return the same events as a linear scan after events are removed" in {
+
+    forAll(sortedOffsets, Gen.choose(-10, 1010), Gen.choose(1, 5)) { (offsets: List[Int], since: Int, mod: Int) =>
+      val es = events(offsets)
+      val s = start.plusMillis(since)
+      val kept = es.filterNot(_.n % mod == 0)
+
+      log(es).filterNot(_.event.n % mod == 0).postedAfter(Some(s)) should equal(kept.filter(_.posted.get.isAfter(s)))
+    }
+  }
+
+  it should "keep the json size and event counts of the remaining events" in {
+
+    forAll(sortedOffsets, Gen.choose(1, 5)) { (offsets: List[Int], mod: Int) =>
+      val l = log(events(offsets)).filterNot(_.event.n % mod == 0)
+
+      l.jsonBytes should equal(l.entries.map(_.json.length.toLong).sum)
+      l.eventCounts should equal(l.events.groupBy(_.getClass.getSimpleName).mapValues(_.size))
+    }
+  }
+
+  it should "not append events that have not been posted" in {
+
+    a[AssertionError] should be thrownBy {
+      PostedEventLog[TestEvent]().append(1, TestEvent(0, None), ByteString.empty)
+    }
+  }
+
+  it should "not append events with a sequence number that is not increasing" in {
+
+    a[AssertionError] should be thrownBy {
+      PostedEventLog[TestEvent]().append(2, TestEvent(0, Some(start)), ByteString.empty)
+        .append(2, TestEvent(1, Some(start)), ByteString.empty)
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import java.util.UUID
+
+import org.scalatest._
+
+class PostedEventsFilterSpec extends FlatSpec with Matchers {
+
+  val id = UUID.randomUUID()
+
+  it should "read comma separated query parameter values" in {
+
+    PostedEventsFilter(Some(s" $id ,not-an-id,"), Some("USD,EUR"), Some("Western Union"), None) should equal(
+      PostedEventsFilter(Set(id), Set("USD", "EUR"), Set("Western Union"), Set[String]()))
+  }
+
+  it should "be empty without any values" in {
+
+    PostedEventsFilter(None, Some(","), Some(""), None).isEmpty should be(true)
+    PostedEventsFilter(events = Set("BtcBuyerFiatSent")).isEmpty should be(false)
+  }
+
+  it should "write the same filter as query parameters" in {
+
+    val f = PostedEventsFilter(Set(id), Set("USD", "EUR"), Set("Western Union"), Set("BtcBuyerFiatSent"))
+
+    f.query should equal(s"&id=$id&currency=EUR,USD&paymentMethod=Western+Union&event=BtcBuyerFiatSent")
+    PostedEventsFilter(Some(id.toString), Some("EUR,USD"), Some("Western Union"), Some("BtcBuyerFiatSent")) should equal(f)
+    f.params should equal(Seq("id" -> id.toString, "currency" -> "EUR,USD", "paymentMethod" -> "Western Union",
+      "event" -> "BtcBuyerFiatSent"))
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bytabit.ft.server
+
+import java.util.UUID
+
+import akka.util.ByteString
+import org.bytabit.ft.server.EventServer.TradeEventPosted
+import org.bytabit.ft.server.TradePartition.TradeEventPersisted
+import org.bytabit.ft.trade.TradeProcess
+import org.joda.time.DateTime
+import org.scalatest._
+
+class SequencedCommitsSpec extends FlatSpec with Matchers {
+
+  def posted(seq: Long) = TradeEventPosted(TradeProcess.BtcBuyerCanceledOffer(UUID.randomUUID(), Some(DateTime.now())),
+    Some(seq))
+
+  it should "apply events in sequence order once earlier events are committed" in {
+    val (c1, a1) = SequencedCommits[String]().commit(2, Some("b"))
+    val (c2, a2) = c1.commit(1, Some("a"))
+
+    a1 should equal(Vector())
+    c1.watermark should equal(0)
+    a2 should equal(Vector(1L -> Some("a"), 2L -> Some("b")))
+    c2.watermark should equal(2)
+  }
+
+  it should "ignore an event committed again" in {
+    val (c1, _) = SequencedCommits[String]().commit(1, Some("a"))
+    val (c2, a2) = c1.commit(1, None)
+
+    a2 should equal(Vector())
+    c2 should equal(c1)
+  }
+
+  it should "advance the watermark past events lost by a failed partition once they are persisted again" in {
+    val writing = Vector(posted(1), posted(2), posted(3))
+    val (c1, _) = SequencedCommits[TradeEventPosted]().commit(3, Some(writing(2)))
+
+    // the partition of events 1 and 2 restarts having only persisted event 1
+    val (persisted, resent) = TradePartition.restarted(Vector(TradeEventPersisted(writing(0), ByteString())),
+      writing.take(2))
+    persisted.map(_.evt) should equal(Vector(writing(0)))
+    resent should equal(Vector(writing(1)))
+
+    val (c2, a2) = persisted.foldLeft((c1, Vector[(Long, Option[TradeEventPosted])]())) { case ((c, a), te) =>
+      val (n, applied) = c.commit(te.evt.seq.get, Some(te.evt))
+      (n, a ++ applied)
+    }
+    a2.map(_._1) should equal(Vector(1))
+    c2.watermark should equal(1)
+
+    val (c3, a3) = c2.commit(2, Some(writing(1)))
+    a3.map(_._1) should equal(Vector(2, 3))
+    c3.watermark should equal(3)
+  }
+
+  it should "advance the watermark past an event that failed to persist" in {
+    val (c1, _) = SequencedCommits[String]().commit(2, Some("b"))
+    val (c2, a2) = c1.commit(1, None)
+
+    a2 should equal(Vector(1L -> None, 2L -> Some("b")))
+    c2.watermark should equal(2)
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import org.scalatest._
+
+class ServerMetricsSpec extends FlatSpec with Matchers {
+
+  it should "count each recorded latency in its bucket and all later buckets" in {
+
+    val h = new ServerMetrics.Histogram
+    h.record(500000)
+    h.recordMillis(3)
+    h.recordMillis(20000)
+
+    val b = new StringBuilder
+    h.write(b, "latency", "test=\"1\"")
+    val lines = b.toString().split("\n")
+
+    lines should contain("""latency_bucket{test="1",le="0.001"} 1""")
+    lines should contain("""latency_bucket{test="1",le="0.0025"} 1""")
+    lines should contain("""latency_bucket{test="1",le="0.005"} 2""")
+    lines should contain("""latency_bucket{test="1",le="10.0"} 2""")
+    lines should contain("""latency_bucket{test="1",le="+Inf"} 3""")
+    lines should contain("""latency_count{test="1"} 3""")
+    lines should contain("""latency_sum{test="1"} 20.0035""")
+  }
+
+  it should "write persist and commit latency separately and each gauge with its labels" in {
+
+    val m = new ServerMetrics("test", 2)
+    m.persist.recordMillis(1)
+    m.commit.recordMillis(30)
+    m.commit.recordMillis(40)
+    m.partitionWriting.incrementAndGet(1)
+
+    val lines = m.text(Seq(("ft_partition_writing", "partition=\"0\"", m.partitionWriting.get(0).toDouble),
+      ("ft_partition_writing", "partition=\"1\"", m.partitionWriting.get(1).toDouble))).split("\n")
+
+    lines should contain("""ft_persist_duration_seconds_count{arbitrator="test"} 1""")
+    lines should contain("""ft_commit_duration_seconds_count{arbitrator="test"} 2""")
+    lines.count(_ == "# TYPE ft_partition_writing gauge") should equal(1)
+    lines should contain("""ft_partition_writing{arbitrator="test",partition="0"} 0.0""")
+    lines should contain("""ft_partition_writing{arbitrator="test",partition="1"} 1.0""")
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Steven Myers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bytabit.ft.server
+
+import java.net.URL
+import java.util.UUID
+
+import org.bitcoinj.core._
+import org.bitcoinj.wallet.Wallet
+import org.bytabit.ft.trade.TradeProcess
+import org.bytabit.ft.trade.model.{BtcBuyOffer, Contract, Offer}
+import org.bytabit.ft.util._
+import org.bytabit.ft.wallet.model.{Arbitrator, BtcBuyer}
+import org.joda.time.DateTime
+import org.scalacheck.Gen
+import org.scalatest._
+import org.scalatest.prop.PropertyChecks
+
+class TradeEventIndexSpec extends FlatSpec with Matchers with PropertyChecks {
+
+  val params = NetworkParameters.fromID(NetworkParameters.ID_TESTNET)
+
+  Context.propagate(new Context(params))
+
+  val arbitrator = Arbitrator(new URL("http://bytabit.org"), 0.20, BTCMoney(1, 0))(new Wallet(params))
+
+  val btcBuyerWallet = new Wallet(params)
+
+  val posted = Some(DateTime.now())
+
+  // trades with each combination of currency and payment method
+
+  val contracts = Seq(Contract(arbitrator, CurrencyUnits.USD, PaymentMethod.moneygram),
+    Contract(arbitrator, CurrencyUnits.EUR, PaymentMethod.moneygram),
+    Contract(arbitrator, CurrencyUnits.USD, PaymentMethod.westernUnion),
+    Contract(arbitrator, CurrencyUnits.SEK, PaymentMethod.swish))
+
+  val offers = contracts.map { c =>
+    val offer = Offer(UUID.randomUUID(), c, FiatMoney(c.fiatCurrencyUnit, "100.00"), BTCMoney(1, 0))
+    BtcBuyOffer(offer, BtcBuyer(offer.coinToOpenEscrow)(btcBuyerWallet))
+  }
+
+  // the first event of each trade is its offer, later events are canceled or fiat sent
+
+  def events(picks: Seq[(Int, Boolean)]): Vector[(Long, TradeProcess.PostedEvent)] =
+    picks.foldLeft(Vector[(Long, TradeProcess.PostedEvent)]()) { case (es, (t, canceled)) =>
+      val bbo = offers(t)
+      val te = if (!es.exists(_._2.id == bbo.id)) TradeProcess.BtcBuyerCreatedOffer(bbo.id, bbo, posted)
+      else if (canceled) TradeProcess.BtcBuyerCanceledOffer(bbo.id, posted)
+      else TradeProcess.BtcBuyerFiatSent(bbo.id, None, posted)
+      es :+ ((es.size + 1L, te))
+    }
+
+  def index(es: Seq[(Long, TradeProcess.PostedEvent)]) =
+    es.foldLeft(TradeEventIndex()) { case (i, (seq, te)) => i.added(seq, te) }
+
+  def contract(id: UUID): Contract = offers.find(_.id == id).get.contract
+
+  def scan(es: Seq[(Long, TradeProcess.PostedEvent)], f: PostedEventsFilter) = es.filter { case (seq, te) =>
+    (f.ids.isEmpty || f.ids.contains(te.id)) &&
+      (f.currencyUnits.isEmpty || f.currencyUnits.contains(contract(te.id).fiatCurrencyUnit.getCode)) &&
+      (f.paymentMethods.isEmpty || f.paymentMethods.contains(contract(te.id).paymentMethod.name)) &&
+      (f.events.isEmpty || f.events.contains(te.getClass.getSimpleName))
+  }.map(_._1)
+
+  val picks = Gen.listOf(Gen.zip(Gen.choose(0, offers.size - 1), Gen.oneOf(true, false)))
+
+  val filters = for {
+    ids <- Gen.someOf(offers.map(_.id))
+    currencies <- Gen.someOf("USD", "EUR", "SEK", "GBP")
+    paymentMethods <- Gen.someOf(PaymentMethod.all.map(_.name))
+    events <- Gen.someOf("BtcBuyerCreatedOffer", "BtcBuyerCanceledOffer", "BtcBuyerFiatSent")
+  } yield PostedEventsFilter(ids.toSet, currencies.toSet, paymentMethods.toSet, events.toSet)
+
+  it should "find the same events after a cursor as a linear scan" in {
+
+    forAll(picks, filters, Gen.choose(0, 50), Gen.choose(1, 20)) { (ps, f, after, limit) =>
+      val es = events(ps)
+
+      whenever(!f.isEmpty) {
+        index(es).matching(f, Some(after.toLong), limit) should equal(scan(es, f).filter(_ > after).take(limit))
+      }
+    }
+  }
+
+  it should "match the same events as a linear scan" in {
+
+    forAll(picks, filters) { (ps, f) =>
+      val es = events(ps)
+      val i = index(es)
+
+      es.filter { case (seq, te) => i.matches(f, te) }.map(_._1) should equal(scan(es, f))
+    }
+  }
+
+  it should "not find removed events" in {
+
+    forAll(picks, filters, Gen.choose(0, 50)) { (ps, f, upToSeq) =>
+      val es = events(ps)
+      val ids = offers.take(2).map(_.id).toSet
+      val kept = es.filterNot { case (seq, te) => ids.contains(te.id) && seq <= upToSeq }
+
+      whenever(!f.isEmpty) {
+        index(es).removed(ids, upToSeq).matching(f, None, es.size) should equal(scan(kept, f))
+      }
+    }
+  }
+
+  it should "find nothing without a filter" in {
+
+    index(events(Seq((0, false), (0, false)))).matching(PostedEventsFilter(), None, 10) should equal(Vector())
+  }
+}
@@ -66,4 +66,65 @@ class JsonSpec extends FlatSpec with Matchers with TradeJsonProtocol {
     json should equal(tradePostedEventJsonFormat.write(obj).toString())
   }
 
+  it should "read Offer event from binary and json journal entries" in {
+
+    val evt: TradeProcess.Event = BtcBuyerCreatedOffer(UUID.randomUUID(), btcBuyOffer)
+
+    val binary = JsBinary.write(evt.toJson)
+    val json = evt.toJson.compactPrint.getBytes(JsBinary.UTF8)
+
+    JsBinary.isBinary(binary) should be(true)
+    JsBinary.isBinary(json) should be(false)
+    binary.length should be < json.length
+
+    JsBinary.read(binary) should equal(evt.toJson)
+    JsBinary.read(json).convertTo[TradeProcess.Event].toJson should equal(evt.toJson)
+  }
+
+  it should "read back decimals from binary json without rounding" in {
+
+    val json = JsArray(JsNumber(BigDecimal("1234567890123456789012345678901234567890.0123456789")),
+      JsNumber(BigDecimal("-0.00000000000000000000000000000000000000001")))
+
+    JsBinary.read(JsBinary.write(json)).compactPrint should equal(json.compactPrint)
+  }
+
+  it should "write Offer with the whole contract unless contract ids are written" in {
+
+    val json = JsObject("id" -> offer.id.toJson, "contract" -> contract.toJson,
+      "fiatAmount" -> fiatAmt.toJson, "btcAmount" -> btcAmt.toJson)
+
+    offer.toJson should equal(json)
+    json.convertTo[Offer].toJson should equal(json)
+  }
+
+  it should "read Offer written with its contract id using only the known contracts" in {
+
+    val writer = new TradeJsonProtocol {
+      override def writeContractIds = true
+    }
+    val reader = new TradeJsonProtocol {
+      override def knownContract(id: Sha256Hash) = Map(contract.id -> contract).get(id)
+    }
+
+    val json = writer.offerJsonFormat.write(offer)
+    json.asJsObject.fields.get("contractId") should equal(Some(contract.id.toJson))
+    json.asJsObject.fields.get("contract") should equal(None)
+
+    val obj = reader.offerJsonFormat.read(json)
+    obj.contract.id should equal(contract.id)
+    obj.toJson should equal(offer.toJson)
+  }
+
+  it should "not read Offer written with the id of an unknown contract" in {
+
+    val writer = new TradeJsonProtocol {
+      override def writeContractIds = true
+    }
+
+    val json = writer.offerJsonFormat.write(offer)
+
+    an[DeserializationException] should be thrownBy json.convertTo[Offer]
+  }
+
 }